@@ -0,0 +1,130 @@
+/*
+ * Copyright (C) 2016 Du-Lab Team <dulab.binf@gmail.com>
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+package dulab.adap.common.algorithms;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.results.Result;
+import org.openjdk.jmh.results.RunResult;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * The inner products of the direct path, one wavelet position per operation.
+ * Both have to run without allocating: main runs them with the GC profiler and
+ * fails when gc.alloc.rate.norm is above zero (up to JMH's own measurement
+ * noise). Run with mvn -Pjmh verify.
+ *
+ * @author owen myers
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class InnerProductAllocationBenchmark {
+    // gc.alloc.rate.norm of an operation that does not allocate is 0 up to rounding in the profiler
+    private static final double MAX_BYTES_PER_OP = 0.01;
+    
+    @Param({"4000"})
+    public int numPoints;
+    @Param({"2", "20"})
+    public double waveletScale;
+    
+    private ContinuousWaveletTransform workspace;
+    private RickerKernel kernel;
+    private int position;
+    
+    @Setup
+    public void setUp(){
+        Random random = new Random(1);
+        double[] x = new double[numPoints];
+        double[] signal = new double[numPoints];
+        for (int i=0; i<numPoints; i++){
+            x[i] = 0.01*(i+1);
+            signal[i] = 1000.0*random.nextDouble();
+        }
+        workspace = new ContinuousWaveletTransform(ScaleGrid.explicit(waveletScale));
+        workspace.setSignal(signal);
+        workspace.setX(x);
+        kernel = workspace.getKernelForScaleIndex(0);
+    }
+    
+    // next wavelet position, sweeping over the whole signal including both ends
+    private int nextPosition(){
+        position += 1;
+        if (position==numPoints){
+            position = 0;
+        }
+        return position;
+    }
+    
+    // evenly spaced x, the sampled kernel
+    @Benchmark
+    public double kernelInnerProduct(){
+        return workspace.signalKernelInnerProductOnePoint(nextPosition(), kernel);
+    }
+    
+    // the wavelet evaluated at the x distances
+    @Benchmark
+    public double waveletInnerProduct(){
+        return workspace.signalWaveletInnerProductOnePoint(nextPosition(), waveletScale);
+    }
+    
+    public static void main(String[] args) throws RunnerException{
+        Options options = new OptionsBuilder()
+                .include(InnerProductAllocationBenchmark.class.getName())
+                .addProfiler(GCProfiler.class)
+                .build();
+        boolean allocates = false;
+        for (RunResult runResult : new Runner(options).run()){
+            Result allocation = runResult.getSecondaryResults().get("gc.alloc.rate.norm");
+            if (allocation==null){
+                // older JMH versions prefix the name with a middle dot
+                allocation = runResult.getSecondaryResults().get("·gc.alloc.rate.norm");
+            }
+            String benchmark = runResult.getParams().getBenchmark()
+                    +" waveletScale="+runResult.getParams().getParam("waveletScale");
+            if (allocation==null){
+                throw new IllegalStateException("No allocation rate measured for "+benchmark);
+            }
+            if (allocation.getScore()>MAX_BYTES_PER_OP){
+                System.out.println(benchmark+" allocates "+allocation.getScore()+" B/op");
+                allocates = true;
+            }
+        }
+        if (allocates){
+            throw new IllegalStateException("The inner products allocate, see above");
+        }
+    }
+}
@@ -0,0 +1,185 @@
+/*
+ * Copyright (C) 2016 Du-Lab Team <dulab.binf@gmail.com>
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+package dulab.adap.common.algorithms;
+
+import dulab.adap.datamodel.Ridgeline;
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Diagnostics sink that dumps the coefficient and ridgeline matrices as binary
+ * files on a background thread. The matrices are copied on the calling thread
+ * and every dump gets its own file so it is safe to share one sink between
+ * threads.
+ *
+ * At most maxQueuedDumps matrices wait for the writer. Dumps that come in while
+ * the queue is full are dropped (and counted) before anything is copied, so a
+ * slow disk never holds up the transform or fills the heap. Write failures are
+ * counted too and the first one is thrown from close().
+ *
+ * File layout (big endian, java.io.DataOutputStream): int number of scales,
+ * int number of points, then number of scales doubles with the scales, then
+ * the matrix row by row (one row per scale). Coefficient files hold doubles,
+ * ridgeline files hold ints with the ridgeline number + 1 (0 = no ridgeline).
+ *
+ * @author owen myers
+ */
+public class AsyncBinaryDiagnosticsSink implements WaveletDiagnosticsSink {
+    public static final int DEFAULT_MAX_QUEUED_DUMPS = 16;
+
+    private final File directory;
+    private final AtomicLong dumpCount = new AtomicLong();
+    private final ExecutorService writer;
+    // one permit per dump that may wait for the writer
+    private final Semaphore queueSlots;
+    private final AtomicLong droppedDumps = new AtomicLong();
+    private final AtomicLong failedWrites = new AtomicLong();
+    private final AtomicReference<IOException> firstFailure = new AtomicReference<IOException>();
+
+    public AsyncBinaryDiagnosticsSink(File directoryIn){
+        this(directoryIn, DEFAULT_MAX_QUEUED_DUMPS);
+    }
+
+    public AsyncBinaryDiagnosticsSink(File directoryIn, int maxQueuedDumps){
+        if (maxQueuedDumps<1){
+            throw new IllegalArgumentException("Need room for at least one queued dump");
+        }
+        directory = directoryIn;
+        queueSlots = new Semaphore(maxQueuedDumps);
+        writer = Executors.newSingleThreadExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "wavelet-diagnostics-writer");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+
+    @Override
+    public void coefficientsComputed(final double[] scales, CoefficientMatrix coefficients){
+        if (!queueSlots.tryAcquire()){
+            droppedDumps.incrementAndGet();
+            return;
+        }
+        final int numScales = coefficients.getNumScales();
+        final int numPoints = coefficients.getNumPoints();
+        final double[][] copy = coefficients.toArray();
+        final File file = new File(directory, "coefficients-"+dumpCount.incrementAndGet()+".bin");
+
+        writer.execute(new Runnable() {
+            @Override
+            public void run() {
+                try (DataOutputStream out = open(file)){
+                    writeHeader(out, scales, numScales, numPoints);
+                    for (int i=0; i<numScales; i++){
+                        for (int j=0; j<numPoints; j++){
+                            out.writeDouble(copy[i][j]);
+                        }
+                    }
+                } catch (IOException e){
+                    writeFailed(e);
+                } finally {
+                    queueSlots.release();
+                }
+            }
+        });
+    }
+
+    @Override
+    public void ridgelinesBuilt(final double[] scales, final int numPoints, List<Ridgeline> ridgelines){
+        if (!queueSlots.tryAcquire()){
+            droppedDumps.incrementAndGet();
+            return;
+        }
+        final int numScales = scales.length;
+        final int[][] ridgeArr = new int[numScales][numPoints];
+        for (int i=0; i<ridgelines.size(); i++){
+            Ridgeline curRL = ridgelines.get(i);
+            for (int j=0; j<curRL.getRidgeLength(); j++){
+                ridgeArr[curRL.getScaleIndex(j)][curRL.getIndex(j)] = i+1;
+            }
+        }
+        final File file = new File(directory, "ridgelines-"+dumpCount.incrementAndGet()+".bin");
+
+        writer.execute(new Runnable() {
+            @Override
+            public void run() {
+                try (DataOutputStream out = open(file)){
+                    writeHeader(out, scales, numScales, numPoints);
+                    for (int i=0; i<numScales; i++){
+                        for (int j=0; j<numPoints; j++){
+                            out.writeInt(ridgeArr[i][j]);
+                        }
+                    }
+                } catch (IOException e){
+                    writeFailed(e);
+                } finally {
+                    queueSlots.release();
+                }
+            }
+        });
+    }
+
+    // dumps that were not written because the queue was full
+    public long getDroppedDumps(){
+        return droppedDumps.get();
+    }
+    // dumps whose file could not be written
+    public long getFailedWrites(){
+        return failedWrites.get();
+    }
+
+    // Waits for the files that are still queued to be written. Throws the first write failure, if any.
+    public void close() throws IOException, InterruptedException{
+        writer.shutdown();
+        writer.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+        IOException failure = firstFailure.get();
+        if (failure!=null){
+            throw new IOException(failedWrites.get()+" diagnostics file(s) could not be written", failure);
+        }
+    }
+
+    private void writeFailed(IOException e){
+        failedWrites.incrementAndGet();
+        firstFailure.compareAndSet(null, e);
+    }
+
+    private static DataOutputStream open(File file) throws IOException{
+        return new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)));
+    }
+
+    private static void writeHeader(DataOutputStream out, double[] scales, int numScales, int numPoints) throws IOException{
+        out.writeInt(numScales);
+        out.writeInt(numPoints);
+        for (int i=0; i<numScales; i++){
+            out.writeDouble(scales[i]);
+        }
+    }
+}
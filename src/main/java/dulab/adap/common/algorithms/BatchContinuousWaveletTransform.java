@@ -0,0 +1,178 @@
+/*
+ * Copyright (C) 2016 Du-Lab Team <dulab.binf@gmail.com>
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+package dulab.adap.common.algorithms;
+
+/**
+ * Coefficients of many signals that share the same x values (e.g. all the EICs
+ * of one sample) computed together. For evenly spaced x every signal uses the
+ * same sampled wavelet for a scale, so the loops are ordered scale, block of
+ * scans, signal: the kernel and the output block stay in cache while it is
+ * applied to all the signals instead of being walked again for every EIC.
+ * Inside a block four signals are done at once so every kernel value that is
+ * loaded is used four times.
+ *
+ * The coefficients are the direct sampled-kernel coefficients of
+ * ContinuousWaveletTransform for each signal on its own, up to rounding (the
+ * products are added up in a different order). When x is not evenly
+ * spaced (see ContinuousWaveletTransform.setUniformSpacingTolerance) there is
+ * no shared kernel and every signal goes through ContinuousWaveletTransform.
+ *
+ * Not thread safe, use one instance per thread (the plan can be shared).
+ *
+ * @author owen myers
+ */
+public class BatchContinuousWaveletTransform {
+    private final ContinuousWaveletTransformPlan plan;
+    // used for the x spacing and for signals that are not evenly spaced
+    private final ContinuousWaveletTransform workspace;
+    private InnerProduct innerProduct = InnerProduct.getBest();
+    private CoefficientMatrix.Precision coefficientPrecision = CoefficientMatrix.Precision.DOUBLE;
+    // number of scans done for all the signals before moving on to the next block
+    private int blockSize = 256;
+
+    public BatchContinuousWaveletTransform(ContinuousWaveletTransformPlan planIn){
+        plan = planIn;
+        workspace = new ContinuousWaveletTransform(plan);
+    }
+
+    public void setBlockSize(int blockSizeIn){
+        if (blockSizeIn<1){
+            throw new IllegalArgumentException("Block size must be positive");
+        }
+        blockSize = blockSizeIn;
+    }
+    public void setInnerProduct(InnerProduct innerProductIn){
+        innerProduct = innerProductIn;
+        workspace.setInnerProduct(innerProductIn);
+    }
+    public void setCoefficientPrecision(CoefficientMatrix.Precision precisionIn){
+        coefficientPrecision = precisionIn;
+        workspace.setCoefficientPrecision(precisionIn);
+    }
+    public void setUniformSpacingTolerance(double toleranceIn){
+        workspace.setUniformSpacingTolerance(toleranceIn);
+    }
+    public ContinuousWaveletTransformPlan getPlan(){
+        return plan;
+    }
+
+    public CoefficientMatrix[] getCoefficients(double[] x, double[][] signals){
+        return getCoefficients(x, signals, null);
+    }
+
+    // Coefficients of every signal, result[k] belongs to signals[k]. The matrices in target are reused
+    // when it is not null and has one entry per signal (null entries are allocated).
+    public CoefficientMatrix[] getCoefficients(double[] x, double[][] signals, CoefficientMatrix[] target){
+        int numScales = plan.getNumberOfScales();
+        int numPoints = x.length;
+        for (double[] signal : signals){
+            if (signal.length!=numPoints){
+                throw new IllegalArgumentException("All the signals need one intensity per x value");
+            }
+        }
+        if (target==null){
+            target = new CoefficientMatrix[signals.length];
+        }
+        else if (target.length!=signals.length){
+            throw new IllegalArgumentException("Need one target matrix per signal");
+        }
+        for (int k=0; k<signals.length; k++){
+            if (target[k]==null || target[k].getPrecision()!=coefficientPrecision){
+                target[k] = new CoefficientMatrix(numScales, numPoints, coefficientPrecision);
+            }
+            else{
+                target[k].reshape(numScales, numPoints);
+            }
+        }
+
+        workspace.setX(x);
+        if (!workspace.isEvenlySpaced()){
+            // wavelet evaluated at the actual x distances, one signal at a time
+            workspace.setConvolutionMode(ContinuousWaveletTransform.ConvolutionMode.DIRECT);
+            double[] row = new double[numPoints];
+            for (int k=0; k<signals.length; k++){
+                workspace.setSignal(signals[k]);
+                workspace.getCoefficientsForAllScales();
+                CoefficientMatrix curCoefficients = workspace.returnCoefficientMatrix();
+                for (int i=0; i<numScales; i++){
+                    target[k].setRow(i, curCoefficients.getRow(i, row));
+                }
+            }
+            return target;
+        }
+
+        for (int i=0; i<numScales; i++){
+            RickerKernel kernel = workspace.getKernelForScaleIndex(i);
+            int leftOffset = kernel.getLeftOffset();
+            int rightOffset = kernel.getRightOffset();
+            for (int blockStart=0; blockStart<numPoints; blockStart+=blockSize){
+                int blockEnd = java.lang.Math.min(numPoints, blockStart+blockSize);
+                int k = 0;
+                for (; k+3<signals.length; k+=4){
+                    fourSignals(signals, target, k, i, kernel, blockStart, blockEnd);
+                }
+                for (; k<signals.length; k++){
+                    double[] signal = signals[k];
+                    CoefficientMatrix curCoefficients = target[k];
+                    for (int j=blockStart; j<blockEnd; j++){
+                        // same clipping as ContinuousWaveletTransform.signalKernelInnerProductOnePoint
+                        int leftBound = java.lang.Math.max(0, j+leftOffset);
+                        int rightBound = java.lang.Math.min(numPoints-1, j+rightOffset);
+                        curCoefficients.set(i, j, innerProduct.dot(signal, leftBound,
+                                                                   kernel.values, leftBound-j-leftOffset,
+                                                                   rightBound-leftBound+1));
+                    }
+                }
+            }
+        }
+        return target;
+    }
+
+    // scans blockStart..blockEnd-1 of signals k to k+3 for one scale
+    private void fourSignals(double[][] signals, CoefficientMatrix[] target, int k, int scaleIndex,
+                             RickerKernel kernel, int blockStart, int blockEnd){
+        double[] s0 = signals[k];
+        double[] s1 = signals[k+1];
+        double[] s2 = signals[k+2];
+        double[] s3 = signals[k+3];
+        double[] values = kernel.values;
+        int leftOffset = kernel.getLeftOffset();
+        int numPoints = s0.length;
+        for (int j=blockStart; j<blockEnd; j++){
+            int leftBound = java.lang.Math.max(0, j+leftOffset);
+            int rightBound = java.lang.Math.min(numPoints-1, j+kernel.getRightOffset());
+            int kernelIndex = leftBound-j-leftOffset;
+            double sum0 = 0.0;
+            double sum1 = 0.0;
+            double sum2 = 0.0;
+            double sum3 = 0.0;
+            for (int m=leftBound; m<=rightBound; m++){
+                double w = values[kernelIndex];
+                sum0 += s0[m]*w;
+                sum1 += s1[m]*w;
+                sum2 += s2[m]*w;
+                sum3 += s3[m]*w;
+                kernelIndex++;
+            }
+            target[k].set(scaleIndex, j, sum0);
+            target[k+1].set(scaleIndex, j, sum1);
+            target[k+2].set(scaleIndex, j, sum2);
+            target[k+3].set(scaleIndex, j, sum3);
+        }
+    }
+}
@@ -0,0 +1,206 @@
+/*
+ * Copyright (C) 2016 Du-Lab Team <dulab.binf@gmail.com>
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+package dulab.adap.common.algorithms;
+
+/**
+ * Wavelet coefficients for all scales of one signal stored in a single
+ * contiguous array, one row per scale. With FLOAT precision the values are
+ * stored as float which halves the memory at the cost of ~7 significant digits.
+ *
+ * @author owen myers
+ */
+public class CoefficientMatrix {
+    public enum Precision {DOUBLE, FLOAT}
+
+    private final Precision precision;
+    private int numScales;
+    private int numPoints;
+    // only one of these is used depending on the precision. Element [scale*numPoints+index]
+    private double[] doubleValues;
+    private float[] floatValues;
+    // set, setRow, reshape and clear throw when true
+    private final boolean readOnly;
+
+    public CoefficientMatrix(int numScalesIn, int numPointsIn, Precision precisionIn){
+        numScales = numScalesIn;
+        numPoints = numPointsIn;
+        precision = precisionIn;
+        readOnly = false;
+        if (precision==Precision.FLOAT){
+            floatValues = new float[numScales*numPoints];
+            doubleValues = null;
+        }
+        else{
+            doubleValues = new double[numScales*numPoints];
+            floatValues = null;
+        }
+    }
+
+    // shares the values of matrix
+    private CoefficientMatrix(CoefficientMatrix matrix){
+        numScales = matrix.numScales;
+        numPoints = matrix.numPoints;
+        precision = matrix.precision;
+        doubleValues = matrix.doubleValues;
+        floatValues = matrix.floatValues;
+        readOnly = true;
+    }
+
+    // A view of the same values that cannot be written to, for matrices that are shared (e.g. by
+    // ContinuousWaveletTransformResultCache). Nothing is copied.
+    public CoefficientMatrix readOnlyView(){
+        if (readOnly){
+            return this;
+        }
+        return new CoefficientMatrix(this);
+    }
+    public boolean isReadOnly(){
+        return readOnly;
+    }
+    private void checkWritable(){
+        if (readOnly){
+            throw new UnsupportedOperationException("The coefficient matrix is read only, use copy()");
+        }
+    }
+
+    // Changes the size of the matrix, keeping the buffer if it is big enough so a workspace can reuse
+    // one matrix for many signals. The values are not cleared.
+    public void reshape(int numScalesIn, int numPointsIn){
+        checkWritable();
+        int size = numScalesIn*numPointsIn;
+        if (precision==Precision.FLOAT){
+            if (floatValues.length<size){
+                floatValues = new float[size];
+            }
+        }
+        else if (doubleValues.length<size){
+            doubleValues = new double[size];
+        }
+        numScales = numScalesIn;
+        numPoints = numPointsIn;
+    }
+
+    // sets every value to zero
+    public void clear(){
+        checkWritable();
+        if (doubleValues!=null){
+            java.util.Arrays.fill(doubleValues, 0, numScales*numPoints, 0.0);
+        }
+        else{
+            java.util.Arrays.fill(floatValues, 0, numScales*numPoints, 0.0f);
+        }
+    }
+
+    // A copy holding just the current values (no spare room from reshape). The copy can be written to.
+    public CoefficientMatrix copy(){
+        CoefficientMatrix toReturn = new CoefficientMatrix(numScales, numPoints, precision);
+        if (doubleValues!=null){
+            System.arraycopy(doubleValues, 0, toReturn.doubleValues, 0, numScales*numPoints);
+        }
+        else{
+            System.arraycopy(floatValues, 0, toReturn.floatValues, 0, numScales*numPoints);
+        }
+        return toReturn;
+    }
+
+    // memory used by the values
+    public long getSizeInBytes(){
+        if (doubleValues!=null){
+            return 8L*doubleValues.length;
+        }
+        return 4L*floatValues.length;
+    }
+
+    public int getNumScales(){
+        return numScales;
+    }
+    public int getNumPoints(){
+        return numPoints;
+    }
+    public Precision getPrecision(){
+        return precision;
+    }
+
+    public double get(int scaleIndex, int index){
+        if (doubleValues!=null){
+            return doubleValues[scaleIndex*numPoints+index];
+        }
+        return floatValues[scaleIndex*numPoints+index];
+    }
+
+    public void set(int scaleIndex, int index, double value){
+        checkWritable();
+        if (doubleValues!=null){
+            doubleValues[scaleIndex*numPoints+index] = value;
+        }
+        else{
+            floatValues[scaleIndex*numPoints+index] = (float) value;
+        }
+    }
+
+    // copies the first numPoints values of row into the row of this scale
+    public void setRow(int scaleIndex, double[] row){
+        checkWritable();
+        int start = scaleIndex*numPoints;
+        if (doubleValues!=null){
+            System.arraycopy(row, 0, doubleValues, start, numPoints);
+        }
+        else{
+            for (int i=0; i<numPoints; i++){
+                floatValues[start+i] = (float) row[i];
+            }
+        }
+    }
+
+    // Copies the coefficients of one scale into target. A new array is made if target is null or too short.
+    public double[] getRow(int scaleIndex, double[] target){
+        if (target==null || target.length<numPoints){
+            target = new double[numPoints];
+        }
+        int start = scaleIndex*numPoints;
+        if (doubleValues!=null){
+            System.arraycopy(doubleValues, start, target, 0, numPoints);
+        }
+        else{
+            for (int i=0; i<numPoints; i++){
+                target[i] = floatValues[start+i];
+            }
+        }
+        return target;
+    }
+
+    // Copies the coefficients of all scales at one index into target (smallest scale first).
+    public double[] getColumn(int index, double[] target){
+        if (target==null || target.length<numScales){
+            target = new double[numScales];
+        }
+        for (int i=0; i<numScales; i++){
+            target[i] = get(i, index);
+        }
+        return target;
+    }
+
+    // jagged copy in the old [scale][index] layout
+    public double[][] toArray(){
+        double[][] toReturn = new double[numScales][];
+        for (int i=0; i<numScales; i++){
+            toReturn[i] = getRow(i, null);
+        }
+        return toReturn;
+    }
+}
@@ -17,14 +17,17 @@
  */
 package dulab.adap.common.algorithms;
 
+import dulab.adap.datamodel.PeakCandidates;
 import dulab.adap.datamodel.Ridgeline;
-import java.io.IOException;
-import java.io.PrintWriter;
 import java.lang.Math;
 import java.util.ArrayList;
 import java.util.Arrays;
 import static java.util.Arrays.fill;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
 import java.lang.String;
 
 
@@ -34,56 +37,244 @@ import java.lang.String;
  * @author owen myers
  */
 public class ContinuousWaveletTransform {
-    // all scales will mbe measured in units of scans (indecies)
-    private double smallScale;
-    private double largeScale;
-    private double incrementScale;
-    private ArrayList<Double> arrScales = new ArrayList<Double>();
-    private HashMap<Double,Integer> mapScaleToIndex = new HashMap<Double,Integer>();
+    // How the coefficients are calculated.
+    // DIRECT: the original point by point inner product of the signal and the wavelet.
+    // FFT: the signal is transformed once and multiplied by the spectrum of the wavelet for each scale.
+    //      The wavelet is sampled at multiples of the average x spacing so on evenly spaced data the
+    //      coefficients agree with DIRECT to within ~1e-12 of the largest coefficient (round off only).
+    //      On unevenly spaced data the difference is on the order of the relative jitter of the spacing.
+    // AUTO: FFT when it is cheaper for the signal length and wavelet width, and the x spacing is
+    //       within uniformSpacingTolerance of being even. Otherwise DIRECT.
+    public enum ConvolutionMode {AUTO, DIRECT, FFT}
+    
+    // scales, kernels and thresholds. Shared, this object only holds the buffers for one signal at a time.
+    private final ContinuousWaveletTransformPlan plan;
     private String waveletType;
     private double[] signal;
     private double[] x;
     private double avgXSpace;
-    private double[][] allCoefficients;
+    private CoefficientMatrix coefficients;
+    // true when coefficients is the caller's matrix from buildRidgelines(CoefficientMatrix), it is
+    // never written to
+    private boolean coefficientsBorrowed = false;
+    private CoefficientMatrix.Precision coefficientPrecision = CoefficientMatrix.Precision.DOUBLE;
+    // one row of coefficients at a time for finding the maxima, and the buffers for sorting it
+    private double[] rowBuffer;
+    private int[] sortedIndecies;
+    private int[] sortScratch;
+    private boolean[] removed;
+    // When true buildRidgelines only tries to add a maximum to the ridgelines whose last point is
+    // close enough for tryAddPoint to possibly accept it. Same ridgelines as trying every one of them.
+    private boolean indexedRidgelineLinking = true;
+    // ridgelines sorted by their last index at the start of the current scale
+    private double[] ridgeLastIndex;
+    private int[] ridgeOrder;
+    private int[] ridgeSortScratch;
     private ArrayList<Ridgeline> ridgeLineArr = new ArrayList<Ridgeline>();
+    // The ridgelines new maxima are tried on. Ridgelines that can no longer reach the minimum length
+    // are dropped from both lists after every scale, and from this one only when retired by
+    // maxRidgelineGap.
+    private ArrayList<Ridgeline> activeRidgelines = new ArrayList<Ridgeline>();
+    // A ridgeline that has gone more than this many scales without a new point is retired: no more
+    // points are tried on it. Negative (the default) turns this off. Retired ridgelines do not take
+    // part in linking any more so their maxima can start new ridgelines, which is not exactly the
+    // same result as building without retirement.
+    private int maxRidgelineGap = -1;
+    // reused from one signal to the next
+    private boolean[] useFFT;
+    private double[] signalRe;
+    private double[] signalIm;
+    private double[] kernelRe;
+    private double[] kernelIm;
+    // decimation factor of every scale and the box averaged signal for each power of two used
+    private int[] decimation;
+    private ArrayList<double[]> decimatedSignals = new ArrayList<double[]>();
+    private double[] decimatedCoefficients;
+    // Multiresolution mode. A scale s is computed on the signal box averaged over d scans and
+    // decimated by d, with d the largest power of two that keeps s/d >= minDecimatedScale, and the
+    // coefficients are interpolated back to every scan. The work for a scale drops by about d*d.
+    // Larger values are more accurate (fewer scales get decimated, by less). Only used for evenly
+    // spaced data. Zero or less (the default) turns it off.
+    private double minDecimatedScale = 0.0;
+    // Coarse to fine mode for EICs that are mostly baseline. The coefficients are first computed on
+    // every coarseStride-th scan only. Around every coarse coefficient of at least
+    // coarseRelativeThreshold times the largest coarse coefficient of its scale all the scales are
+    // computed at full resolution, within the reach of the widest wavelet plus the stride. The other
+    // scans are left at zero and the ridgeline builder does not look at them. Peaks outside of the
+    // refined regions are lost and the wavelet coefficient SN estimator sees zeros there. A stride of
+    // 1 or less (the default) turns it off. Takes the place of the FFT, decimation and executor.
+    private int coarseStride = 0;
+    private double coarseRelativeThreshold = 0.05;
+    // true when only the scans in computedRanges ([2k] inclusive to [2k+1] exclusive) were computed
+    private boolean sparseCoefficients = false;
+    private int[] computedRanges = new int[16];
+    private int numComputedRanges = 0;
+    private double[] coarseBuffer;
+    private int[] coverageBuffer;
+    private final PeakCandidates peakCandidates = new PeakCandidates();
+    // range statistics of signal over x for the peak filters, built when first asked for
+    private final SignalIndex signalIndex = new SignalIndex();
+    private boolean signalIndexCurrent = false;
+    private ConvolutionMode convolutionMode = ConvolutionMode.AUTO;
+    // largest deviation of a single x spacing from the average spacing (relative to the average)
+    // for which AUTO still treats the data as evenly spaced.
+    private double uniformSpacingTolerance = 0.001;
+    private double maxRelativeSpacingDeviation;
+    // When set the coefficients are computed in parallel on this executor (e.g. a ForkJoinPool).
+    // Scales done with the FFT are one task each, direct scales are split into blocks of
+    // parallelBlockSize scans. Every coefficient is computed exactly as in the serial path so the
+    // result does not depend on the executor.
+    private Executor executor = null;
+    private int parallelBlockSize = 1024;
+    // dot product of the signal with the sampled kernels
+    private InnerProduct innerProductKernel = InnerProduct.getBest();
+    // results of earlier signals, see ContinuousWaveletTransformResultCache
+    private ContinuousWaveletTransformResultCache resultCache = null;
+    // debugging output, nothing is written when this is null
+    private WaveletDiagnosticsSink diagnosticsSink = null;
     
-    
- 
-    
+    // Rough number of direct multiply-adds (including evaluating the wavelet) that cost the same as
+    // one butterfly in the FFT. Used by AUTO to pick the cheaper convolution.
+    private static final double FFT_COST_FACTOR = 4.0;
+
     // how far in each direction from the current point do we need to grab data for a succesful wavelet transform?
     // This number is the factor we multiply by the scale. 5 should be good because this is the estimated compact support
-    int scaleCoefHowFarOut = 5;
+    private final int scaleCoefHowFarOut;
     
+    // copy of the coefficients as [scale][index]
     public double[][] returnAllCoefficients(){
-        return allCoefficients;
+        return coefficients.toArray();
+    }
+    // Read only when the result came from the result cache, copy() it to change it
+    public CoefficientMatrix returnCoefficientMatrix(){
+        return coefficients;
+    }
+    // FLOAT halves the memory of the coefficients
+    public void setCoefficientPrecision(CoefficientMatrix.Precision precisionIn){
+        coefficientPrecision = precisionIn;
+    }
+    
+    public void setConvolutionMode(ConvolutionMode modeIn){
+        convolutionMode = modeIn;
+    }
+    public ConvolutionMode getConvolutionMode(){
+        return convolutionMode;
+    }
+    public void setUniformSpacingTolerance(double toleranceIn){
+        uniformSpacingTolerance = toleranceIn;
+    }
+    public void setDiagnosticsSink(WaveletDiagnosticsSink sinkIn){
+        diagnosticsSink = sinkIn;
+    }
+    
+    public double[] getScales(){
+        return plan.getScales();
+    }
+    public ContinuousWaveletTransformPlan getPlan(){
+        return plan;
+    }
+    
+    // null goes back to the serial path
+    public void setExecutor(Executor executorIn){
+        executor = executorIn;
+    }
+    // Dot product used for the sampled kernels. Defaults to the vector API version when it is
+    // available, see InnerProduct.
+    public void setInnerProduct(InnerProduct innerProductIn){
+        innerProductKernel = innerProductIn;
+    }
+    public void setMaxRidgelineGap(int maxGapIn){
+        maxRidgelineGap = maxGapIn;
+    }
+    public void setResultCache(ContinuousWaveletTransformResultCache resultCacheIn){
+        resultCache = resultCacheIn;
+    }
+    public void setCoarseToFine(int strideIn, double relativeThresholdIn){
+        coarseStride = strideIn;
+        coarseRelativeThreshold = relativeThresholdIn;
+    }
+    // number of scans the last transform computed at full resolution
+    public int getNumComputedScans(){
+        if (!sparseCoefficients){
+            return coefficients==null ? 0 : coefficients.getNumPoints();
+        }
+        int total = 0;
+        for (int k=0; k<numComputedRanges; k++){
+            total += computedRanges[2*k+1]-computedRanges[2*k];
+        }
+        return total;
+    }
+    public void setMinDecimatedScale(double minDecimatedScaleIn){
+        minDecimatedScale = minDecimatedScaleIn;
+    }
+    public void setIndexedRidgelineLinking(boolean indexedIn){
+        indexedRidgelineLinking = indexedIn;
+    }
+    public void setParallelBlockSize(int blockSizeIn){
+        if (blockSizeIn<1){
+            throw new IllegalArgumentException("Block size must be positive");
+        }
+        parallelBlockSize = blockSizeIn;
+    }
+    
+    // When the spacing is even the wavelet only depends on the index offset so it can be
+    // sampled once per scale (RickerKernel) instead of evaluated at every point.
+    public boolean isEvenlySpaced(){
+        return maxRelativeSpacingDeviation<=uniformSpacingTolerance;
+    }
+    
+    public RickerKernel getKernelForScale(double waveletScale){
+        return getKernelForScaleIndex(plan.getScaleIndex(waveletScale));
+    }
+    public RickerKernel getKernelForScaleIndex(int scaleIndex){
+        return plan.getKernels(avgXSpace)[scaleIndex];
     }
     
     public ContinuousWaveletTransform(double smallScaleIn,
                                         double largeScaleIn,
                                         double incrementScaleIn){
-        smallScale = smallScaleIn;
-        largeScale = largeScaleIn;
-        incrementScale = incrementScaleIn;
-        
-        int index = 0;
-        for (double curScale=smallScale; curScale<=largeScale; curScale+=incrementScale){
-            arrScales.add(curScale);
-            mapScaleToIndex.put(curScale,index);
-            index += 1;
-        }
-        
+        this(new ContinuousWaveletTransformPlan(smallScaleIn, largeScaleIn, incrementScaleIn));
+    }
     
+    public ContinuousWaveletTransform(ScaleGrid scaleGrid){
+        this(new ContinuousWaveletTransformPlan(scaleGrid));
     }
+    
+    // Workspace for running many signals through the same plan, one after the other. Call setSignal
+    // and setX for each signal. Not thread safe, use one per thread.
+    public ContinuousWaveletTransform(ContinuousWaveletTransformPlan planIn){
+        plan = planIn;
+        scaleCoefHowFarOut = plan.getSupportFactor();
+    }
+    // The SignalIndex of the current signal and x. It belongs to the workspace, setSignal and setX
+    // make the next call rebuild it.
+    public SignalIndex getSignalIndex(){
+        if (!signalIndexCurrent){
+            signalIndex.build(signal, x);
+            signalIndexCurrent = true;
+        }
+        return signalIndex;
+    }
+    
     // returns two arrays, one of the lower bounds of the peaks and one of the upper bounds of the peaks.
+    // The same as findPeakCandidates as three arrays of x.length. Entry i is the ith candidate,
+    // entries after the last candidate are 0.
     public double[][] findBoundries(){
-        double [][] boundsAndBestCoef = new double[3][];
-        for (int i=0; i<3;i++){
-            boundsAndBestCoef[i]= new double[x.length];
-            fill(boundsAndBestCoef[i],0.0);
+        PeakCandidates found = findPeakCandidates();
+        double [][] boundsAndBestCoef = new double[3][x.length];
+        for (int i=0; i<found.size(); i++){
+            boundsAndBestCoef[0][i] = found.getLeftBound(i);
+            boundsAndBestCoef[1][i] = found.getRightBound(i);
+            boundsAndBestCoef[2][i] = found.getBestCoefficient(i);
         }
-       
-        
-        int count = 0;
+        return boundsAndBestCoef;
+    }
+    
+    // The bounds (best index -/+ the best scale, within the signal) and the best coefficient of every
+    // ridgeline, in the order of the ridgelines. The returned object belongs to the workspace and is
+    // overwritten by the next call.
+    public PeakCandidates findPeakCandidates(){
+        peakCandidates.clear();
         for (Ridgeline curRL : ridgeLineArr){
             int bestIndex = curRL.getBestIndex();
             // this is the actuale scale, not the index of the best scale.
@@ -99,133 +290,678 @@ public class ContinuousWaveletTransform {
                 curLeftBound = 0;
             }
             
-            boundsAndBestCoef[0][count] = curLeftBound;
-            boundsAndBestCoef[1][count] = curRightBound;
-            boundsAndBestCoef[2][count] = bestCoefficient;
-            
-            count+=1;
+            peakCandidates.add(curLeftBound, curRightBound, bestCoefficient);
         }
-        return boundsAndBestCoef;
+        return peakCandidates;
     }
     
     public void filterRidgelines(){
-        ArrayList<Ridgeline> filteredRidgelines = new ArrayList<Ridgeline>();
+        int minRidgeLength = plan.getMinRidgelineLength();
         
+        // keep the ones that are long enough, in order, in the same list
+        int kept = 0;
         for (int i=0; i<ridgeLineArr.size(); i++){
             Ridgeline curRL = ridgeLineArr.get(i);
             int ridgeLength = curRL.getRidgeLength();
-            int NScales = curRL.totalNumberOfScales;
 
-            // When we make this CWT more general this check should be in terms of some precentage of the total number of scales.
-            // Unless you are always dividing the scale range by 10.
-            if (ridgeLength<(NScales-3)){
+            if (ridgeLength<minRidgeLength){
                 continue;
             }
-            filteredRidgelines.add(curRL);
-            
+            ridgeLineArr.set(kept, curRL);
+            kept += 1;
         }
-        ridgeLineArr = filteredRidgelines;
-
-
+        truncate(ridgeLineArr, kept);
     }
     
     public void buildRidgelines(){
+        if (resultCache!=null){
+            ContinuousWaveletTransformResultCache.Key key = resultCache.keyFor(this);
+            if (resultCache.restore(key, this)){
+                return;
+            }
+            getCoefficientsForAllScales();
+            linkRidgelines();
+            resultCache.store(key, coefficients, ridgeLineArr);
+            return;
+        }
         getCoefficientsForAllScales();
+        linkRidgelines();
+    }
+    
+    // Puts the coefficients and ridgelines of an earlier buildRidgelines of the same signal back. The
+    // matrix is only read and the ridgelines are not changed.
+    void restoreRidgelines(CoefficientMatrix coefficientsIn, List<Ridgeline> ridgelinesIn){
+        coefficients = coefficientsIn;
+        coefficientsBorrowed = true;
+        sparseCoefficients = false;
+        ridgeLineArr.clear();
+        ridgeLineArr.addAll(ridgelinesIn);
+        activeRidgelines.clear();
+    }
+    
+    // Everything other than the signal and x that changes what buildRidgelines finds
+    String resultCacheConfiguration(){
+        return Arrays.toString(plan.getScales())
+                +"|"+plan.getSupportFactor()
+                +"|"+convolutionMode
+                +"|"+uniformSpacingTolerance
+                +"|"+coefficientPrecision
+                +"|"+minDecimatedScale
+                +"|"+plan.getMinRidgelineLength()
+                +"|"+coarseStride+"/"+coarseRelativeThreshold
+                +"|"+maxRidgelineGap
+                +"|"+innerProductKernel.getName();
+    }
+    double[] getSignal(){
+        return signal;
+    }
+    double[] getX(){
+        return x;
+    }
+    
+    // Ridgelines of coefficients computed somewhere else (e.g. by StreamingContinuousWaveletTransform)
+    // with one row per scale of the plan. The matrix is only read. No signal has to be set, the
+    // ridgeline indecies are column indecies of the matrix.
+    public void buildRidgelines(CoefficientMatrix coefficientsIn){
+        if (coefficientsIn.getNumScales()!=plan.getNumberOfScales()){
+            throw new IllegalArgumentException("Need one row of coefficients for every scale of the plan");
+        }
+        coefficients = coefficientsIn;
+        coefficientsBorrowed = true;
+        sparseCoefficients = false;
+        linkRidgelines();
+    }
+    
+    // the ridgelines found by the last buildRidgelines (and filterRidgelines)
+    public List<Ridgeline> getRidgelines(){
+        return Collections.unmodifiableList(ridgeLineArr);
+    }
+    
+    private void linkRidgelines(){
+        ridgeLineArr.clear();
+        activeRidgelines.clear();
 
 
         // start from the largest scale and go to the smallest
-        for (int i=arrScales.size()-1; i>=0; i--){
-            double curScale = arrScales.get(i);
-            int indexOfThisWaveletScale = mapScaleToIndex.get(curScale);
-            double[] curCoefficients = allCoefficients[indexOfThisWaveletScale];
+        for (int i=plan.getNumberOfScales()-1; i>=0; i--){
+            double curScale = plan.getScale(i);
+            int indexOfThisWaveletScale = i;
             
             
-            Integer[] thisScaleBestMaxima = findMaximaForThisScale(curScale);
+            int[] thisScaleBestMaxima = findMaximaForScaleIndex(indexOfThisWaveletScale);
             
+            if (indexedRidgelineLinking){
+                linkMaximaIndexed(thisScaleBestMaxima, curScale, indexOfThisWaveletScale);
+            }
+            else{
+                linkMaximaAllRidgelines(thisScaleBestMaxima, curScale, indexOfThisWaveletScale);
+            }
             
-            for (int j=0; j<thisScaleBestMaxima.length;j++){
-                boolean wasMatched = false;
-                int curBestMaxLoc = thisScaleBestMaxima[j];
-                for (int alpha=0; alpha<ridgeLineArr.size(); alpha++){
-                    
-                    boolean wasAdded = ridgeLineArr.get(alpha).tryAddPoint(
+            endOfScale(indexOfThisWaveletScale);
+        }
+        if (diagnosticsSink!=null){
+            diagnosticsSink.ridgelinesBuilt(getScales(), coefficients.getNumPoints(), ridgeLineArr);
+        }
+    }
+    
+    // Updates the gap counters after all the maxima of a scale are linked, drops the ridgelines that
+    // can not get long enough any more and, when maxRidgelineGap is set, retires ridgelines. The
+    // scales still to come are the ones with a smaller index.
+    // A ridgeline only takes the maxima offered to it, so dropping the short ones does not change
+    // the others: the result of filterRidgelines is the same as without dropping.
+    private void endOfScale(int scaleIndex){
+        for (int alpha=0; alpha<activeRidgelines.size(); alpha++){
+            activeRidgelines.get(alpha).endScale(scaleIndex);
+        }
+        int scalesLeft = scaleIndex;
+        
+        int minRidgeLength = plan.getMinRidgelineLength();
+        int kept = 0;
+        for (int alpha=0; alpha<activeRidgelines.size(); alpha++){
+            Ridgeline curRL = activeRidgelines.get(alpha);
+            boolean tooShort = curRL.getRidgeLength()+scalesLeft<minRidgeLength;
+            boolean retired = maxRidgelineGap>=0 && curRL.getRunningGapNum()>maxRidgelineGap;
+            if (tooShort || retired){
+                continue;
+            }
+            activeRidgelines.set(kept, curRL);
+            kept += 1;
+        }
+        truncate(activeRidgelines, kept);
+        
+        // the ones that can not get long enough any more would be thrown out by filterRidgelines anyway
+        kept = 0;
+        for (int alpha=0; alpha<ridgeLineArr.size(); alpha++){
+            Ridgeline curRL = ridgeLineArr.get(alpha);
+            if (curRL.getRidgeLength()+scalesLeft<minRidgeLength){
+                continue;
+            }
+            ridgeLineArr.set(kept, curRL);
+            kept += 1;
+        }
+        truncate(ridgeLineArr, kept);
+    }
+    
+    private static void truncate(ArrayList<Ridgeline> list, int size){
+        while (list.size()>size){
+            list.remove(list.size()-1);
+        }
+    }
+    
+    private void addNewRidgeline(Ridgeline ridgeline){
+        ridgeLineArr.add(ridgeline);
+        activeRidgelines.add(ridgeline);
+    }
+    
+    // every maximum is tried on every active ridgeline
+    private void linkMaximaAllRidgelines(int[] thisScaleBestMaxima, double curScale, int indexOfThisWaveletScale){
+        for (int j=0; j<thisScaleBestMaxima.length;j++){
+            boolean wasMatched = false;
+            int curBestMaxLoc = thisScaleBestMaxima[j];
+            for (int alpha=0; alpha<activeRidgelines.size(); alpha++){
+                
+                boolean wasAdded = activeRidgelines.get(alpha).tryAddPoint(
+                                    indexOfThisWaveletScale,
+                                    curScale,
+                                    curBestMaxLoc,
+                                    coefficients.get(indexOfThisWaveletScale,curBestMaxLoc));
+                
+                if (wasAdded) {wasMatched=true;}
+                
+            }
+            // if it was not added to at least one then make a new redge line
+            if (!wasMatched){
+                
+                Ridgeline curStartRidge = new Ridgeline(indexOfThisWaveletScale,
+                                          curScale,
+                                          thisScaleBestMaxima[j],
+                                          coefficients.get(indexOfThisWaveletScale,curBestMaxLoc),
+                                          plan.getNumberOfScales());
+                                          
+                addNewRidgeline(curStartRidge);
+            }
+        }
+    }
+    
+    // Same linking as linkMaximaAllRidgelines but each maximum is only tried on the ridgelines whose
+    // last index (at the start of this scale) is within 2*indexTol of it. Nothing further away can be
+    // added by tryAddPoint:
+    //  - a new scale is only added within 2*indexTol of the last index
+    //  - a replacement of a point already added at this scale has to be closer to the point before it,
+    //    which is the last index at the start of the scale
+    // Ridgelines started during this scale are not tried at all. The maxima come largest first so
+    // their only way to change (a larger coefficient at the same scale) can never happen.
+    private void linkMaximaIndexed(int[] thisScaleBestMaxima, double curScale, int indexOfThisWaveletScale){
+        int numActive = activeRidgelines.size();
+        if (ridgeOrder==null || ridgeOrder.length<numActive){
+            int capacity = java.lang.Math.max(numActive, 2*(ridgeOrder==null ? 16 : ridgeOrder.length));
+            ridgeLastIndex = new double[capacity];
+            ridgeOrder = new int[capacity];
+            ridgeSortScratch = new int[capacity];
+        }
+        for (int alpha=0; alpha<numActive; alpha++){
+            ridgeLastIndex[alpha] = activeRidgelines.get(alpha).getLastIndex();
+            ridgeOrder[alpha] = alpha;
+        }
+        SortAndKeepOriginalIndecies.sortIndecies(ridgeLastIndex, ridgeOrder, ridgeSortScratch, numActive);
+        
+        for (int j=0; j<thisScaleBestMaxima.length;j++){
+            int curBestMaxLoc = thisScaleBestMaxima[j];
+            double curCoefficient = coefficients.get(indexOfThisWaveletScale,curBestMaxLoc);
+            boolean wasMatched = false;
+            
+            if (numActive>0){
+                int window = 2*(int) Math.round(activeRidgelines.get(0).findIndexTolFromScale(curScale));
+                // first ridgeline with last index > curBestMaxLoc-window
+                int lo = 0;
+                int hi = numActive;
+                while (lo<hi){
+                    int mid = (lo+hi)>>>1;
+                    if (ridgeLastIndex[ridgeOrder[mid]]<=curBestMaxLoc-window){
+                        lo = mid+1;
+                    }
+                    else{
+                        hi = mid;
+                    }
+                }
+                for (int k=lo; k<numActive && ridgeLastIndex[ridgeOrder[k]]<curBestMaxLoc+window; k++){
+                    boolean wasAdded = activeRidgelines.get(ridgeOrder[k]).tryAddPoint(
+                                        indexOfThisWaveletScale,
                                         curScale,
                                         curBestMaxLoc,
-                                        curCoefficients[thisScaleBestMaxima[j]]);
-                    
+                                        curCoefficient);
                     if (wasAdded) {wasMatched=true;}
-                    
-                }
-                // if it was not added to at least one then make a new redge line
-                if (!wasMatched){
-                    
-                    Ridgeline curStartRidge = new Ridgeline(curScale,
-                                              thisScaleBestMaxima[j],
-                                              curCoefficients[thisScaleBestMaxima[j]],
-                                              arrScales.size());
-                                              
-                    ridgeLineArr.add(curStartRidge);
                 }
-            }   
+            }
+            // if it was not added to at least one then make a new redge line
+            if (!wasMatched){
+                Ridgeline curStartRidge = new Ridgeline(indexOfThisWaveletScale,
+                                          curScale,
+                                          curBestMaxLoc,
+                                          curCoefficient,
+                                          plan.getNumberOfScales());
+                addNewRidgeline(curStartRidge);
+            }
         }
-        writeRidgelines();
     }
-    // returns the indecies of the location of the maxima
-    public Integer[] findMaximaForThisScale(double waveletScale){
+    
+    // returns the indecies of the location of the maxima, largest coefficient first.
+    // Greedy non-maximum suppression: take the largest remaining coefficient and remove the points
+    // within removeCutOff of it. Done on primitive arrays that are kept between calls.
+    public int[] findMaximaForThisScale(double waveletScale){
+        return findMaximaForScaleIndex(plan.getScaleIndex(waveletScale));
+    }
+    
+    public int[] findMaximaForScaleIndex(int indexOfThisWaveletScale){
+        double waveletScale = plan.getScale(indexOfThisWaveletScale);
         //when we are removing points adjacent to the current maxima this is the number of points to go in either direction before stopping.
         int removeCutOff = (int) Math.round(waveletScale*2.5);
+        int n = coefficients.getNumPoints();
         
-        ArrayList<Integer> maximaLocations = new ArrayList<Integer>();
+        if (sortedIndecies==null || sortedIndecies.length<n){
+            rowBuffer = new double[n];
+            sortedIndecies = new int[n];
+            sortScratch = new int[n];
+            removed = new boolean[n];
+        }
         
         // sort and keep track of the original idecies
+        double[] curCoefficients = coefficients.getRow(indexOfThisWaveletScale, rowBuffer);
+        // in coarse to fine mode only the scans that were computed are candidates
+        int numCandidates = 0;
+        if (sparseCoefficients){
+            for (int k=0; k<numComputedRanges; k++){
+                for (int i=computedRanges[2*k]; i<computedRanges[2*k+1]; i++){
+                    sortedIndecies[numCandidates] = i;
+                    numCandidates += 1;
+                }
+            }
+        }
+        else{
+            for (int i = 0; i<n; i++){
+                sortedIndecies[i] = i;
+            }
+            numCandidates = n;
+        }
+        SortAndKeepOriginalIndecies.sortIndecies(curCoefficients, sortedIndecies, sortScratch, numCandidates);
+        fill(removed, 0, n, false);
         
-        int indexOfThisWaveletScale = mapScaleToIndex.get(waveletScale);
-        double[] curCoefficients = allCoefficients[indexOfThisWaveletScale];
-       
-        SortAndKeepOriginalIndecies comparator = new SortAndKeepOriginalIndecies(curCoefficients);
-        Integer[] indecies = comparator.makeArrOfIndecies();
-        Arrays.sort(indecies,comparator);
-        
-        HashMap<Integer,Boolean> mapIndexToBoolRemain = new HashMap<Integer,Boolean>();
-        for (int i = 0; i<indecies.length; i++){
-            mapIndexToBoolRemain.put(indecies[i],true);
-        }
-        for (int i = indecies.length-1; i>=0; i--){
-            if (mapIndexToBoolRemain.get(indecies[i])){
-                int curLargestIndex = indecies[i];
-                maximaLocations.add(curLargestIndex);
+        // the maxima are written to the front of sortScratch, it is not needed after the sort
+        int[] maximaLocations = sortScratch;
+        int numMaxima = 0;
+        for (int i = numCandidates-1; i>=0; i--){
+            int curLargestIndex = sortedIndecies[i];
+            if (!removed[curLargestIndex]){
+                maximaLocations[numMaxima] = curLargestIndex;
+                numMaxima += 1;
                 // remove points. num points to right and left equal to current scale
-                mapIndexToBoolRemain.put(curLargestIndex,false);
-                for (int j=1; j<removeCutOff; j++){
-                  
-                    int curRemoveIndexRight = curLargestIndex+j;
-                    int curRemoveIndexLeft = curLargestIndex-j;
-                    if(curRemoveIndexLeft>=0){
-                        mapIndexToBoolRemain.put(curRemoveIndexLeft,false);
+                removed[curLargestIndex] = true;
+                int removeFrom = java.lang.Math.max(0, curLargestIndex-removeCutOff+1);
+                int removeTo = java.lang.Math.min(n-1, curLargestIndex+removeCutOff-1);
+                for (int j=removeFrom; j<=removeTo; j++){
+                    removed[j] = true;
+                }
+            }
+        }
+        
+        return Arrays.copyOf(maximaLocations, numMaxima);
+        
+    }
+    
+    public void getCoefficientsForAllScales(){
+        int NScales = plan.getNumberOfScales();
+        if (coefficients==null || coefficientsBorrowed || coefficients.getPrecision()!=coefficientPrecision){
+            coefficients = new CoefficientMatrix(NScales, x.length, coefficientPrecision);
+            coefficientsBorrowed = false;
+        }
+        else{
+            coefficients.reshape(NScales, x.length);
+        }
+        sparseCoefficients = false;
+        if (coarseStride>1){
+            getCoefficientsCoarseToFine();
+            if (diagnosticsSink!=null){
+                diagnosticsSink.coefficientsComputed(getScales(), coefficients);
+            }
+            return;
+        }
+        
+        // The signal spectrum is shared by all the scales done with the FFT so it is only computed once
+        // with a length big enough for the widest of them.
+        int fftLength = 0;
+        if (useFFT==null || useFFT.length!=NScales){
+            useFFT = new boolean[NScales];
+        }
+        if (decimation==null || decimation.length!=NScales){
+            decimation = new int[NScales];
+        }
+        RickerKernel[] kernels = plan.getKernels(avgXSpace);
+        boolean evenlySpaced = isEvenlySpaced();
+        int maxDecimation = 1;
+        for (int i=0; i<NScales; i++){
+            decimation[i] = evenlySpaced ? decimationForScale(plan.getScale(i)) : 1;
+            maxDecimation = java.lang.Math.max(maxDecimation, decimation[i]);
+            useFFT[i] = decimation[i]==1 && useFFTForKernel(kernels[i]);
+            if (useFFT[i]){
+                fftLength = java.lang.Math.max(fftLength, fftLengthForKernel(kernels[i]));
+            }
+        }
+        if (fftLength>0){
+            if (signalRe==null || signalRe.length!=fftLength){
+                signalRe = new double[fftLength];
+                signalIm = new double[fftLength];
+                kernelRe = new double[fftLength];
+                kernelIm = new double[fftLength];
+            }
+            fill(signalRe, 0.0);
+            fill(signalIm, 0.0);
+            System.arraycopy(signal, 0, signalRe, 0, x.length);
+            FastFourierTransform.transform(signalRe, signalIm);
+        }
+        if (maxDecimation>1){
+            decimateSignal(maxDecimation);
+        }
+        
+        if (executor!=null){
+            getCoefficientsForAllScalesParallel(useFFT, kernels, signalRe, signalIm);
+        }
+        else{
+            for (int i=0; i<NScales; i++){
+                if (decimation[i]>1){
+                    int numDecimated = (x.length+decimation[i]-1)/decimation[i];
+                    if (decimatedCoefficients==null || decimatedCoefficients.length<numDecimated){
+                        decimatedCoefficients = new double[numDecimated];
                     }
-                    if(curRemoveIndexRight<x.length){
-                        mapIndexToBoolRemain.put(curRemoveIndexRight,false);
+                    fillCoefficientsDecimated(i, decimation[i], decimatedCoefficients);
+                }
+                else if (useFFT[i]){
+                    convolveWithKernelFFT(i, kernels[i], signalRe, signalIm, kernelRe, kernelIm);
+                }
+                else{
+                    fillCoefficients(i, 0, x.length, evenlySpaced ? kernels[i] : null);
+                }
+            }
+        }
+        if (diagnosticsSink!=null){
+            diagnosticsSink.coefficientsComputed(getScales(), coefficients);
+        }
+    }
+    
+    private void getCoefficientsForAllScalesParallel(final boolean[] useFFT,
+                                                     final RickerKernel[] kernels,
+                                                     final double[] signalRe,
+                                                     final double[] signalIm){
+        int NScales = plan.getNumberOfScales();
+        final boolean evenlySpaced = isEvenlySpaced();
+        ArrayList<CompletableFuture<Void>> tasks = new ArrayList<CompletableFuture<Void>>();
+        
+        for (int i=0; i<NScales; i++){
+            final int scaleIndex = i;
+            if (decimation[i]>1){
+                tasks.add(CompletableFuture.runAsync(new Runnable() {
+                    @Override
+                    public void run() {
+                        int d = decimation[scaleIndex];
+                        fillCoefficientsDecimated(scaleIndex, d, new double[(x.length+d-1)/d]);
+                    }
+                }, executor));
+                continue;
+            }
+            if (useFFT[i]){
+                tasks.add(CompletableFuture.runAsync(new Runnable() {
+                    @Override
+                    public void run() {
+                        int n = signalRe.length;
+                        convolveWithKernelFFT(scaleIndex, kernels[scaleIndex], signalRe, signalIm, new double[n], new double[n]);
+                    }
+                }, executor));
+                continue;
+            }
+            
+            final RickerKernel kernel = evenlySpaced ? kernels[i] : null;
+            for (int blockStart=0; blockStart<x.length; blockStart+=parallelBlockSize){
+                final int from = blockStart;
+                final int to = java.lang.Math.min(x.length, blockStart+parallelBlockSize);
+                tasks.add(CompletableFuture.runAsync(new Runnable() {
+                    @Override
+                    public void run() {
+                        fillCoefficients(scaleIndex, from, to, kernel);
                     }
+                }, executor));
+            }
+        }
+        
+        // join() rethrows anything thrown by a task (wrapped in a CompletionException)
+        CompletableFuture.allOf(tasks.toArray(new CompletableFuture<?>[tasks.size()])).join();
+    }
+    
+    // Direct coefficients of one scale for the scans from (inclusive) to to (exclusive) written straight
+    // into the coefficient matrix. kernel is null when the data is not evenly spaced.
+    private void fillCoefficients(int scaleIndex, int from, int to, RickerKernel kernel){
+        double waveletScale = plan.getScale(scaleIndex);
+        for (int j=from; j<to; j++){
+            if (kernel!=null){
+                coefficients.set(scaleIndex, j, signalKernelInnerProductOnePoint(j, kernel));
+            }
+            else{
+                coefficients.set(scaleIndex, j, signalWaveletInnerProductOnePoint(j, waveletScale));
+            }
+        }
+    }
+    
+    private void getCoefficientsCoarseToFine(){
+        int NScales = plan.getNumberOfScales();
+        int n = x.length;
+        RickerKernel[] kernels = plan.getKernels(avgXSpace);
+        boolean evenlySpaced = isEvenlySpaced();
+        int numCoarse = (n+coarseStride-1)/coarseStride;
+        if (coarseBuffer==null || coarseBuffer.length<numCoarse){
+            coarseBuffer = new double[numCoarse];
+        }
+        if (coverageBuffer==null || coverageBuffer.length<n+1){
+            coverageBuffer = new int[n+1];
+        }
+        fill(coverageBuffer, 0, n+1, 0);
+        int margin = coarseStride+(int) Math.round(plan.getSupportFactor()*plan.getScale(NScales-1))+1;
+        
+        // coarse pass, coverageBuffer[j] counts the regions starting at j minus the ones ending before j
+        for (int i=0; i<NScales; i++){
+            double waveletScale = plan.getScale(i);
+            double maxCoarse = 0.0;
+            for (int k=0; k<numCoarse; k++){
+                int j = k*coarseStride;
+                if (evenlySpaced){
+                    coarseBuffer[k] = signalKernelInnerProductOnePoint(j, kernels[i]);
+                }
+                else{
+                    coarseBuffer[k] = signalWaveletInnerProductOnePoint(j, waveletScale);
+                }
+                maxCoarse = java.lang.Math.max(maxCoarse, coarseBuffer[k]);
+            }
+            if (!(maxCoarse>0.0)){
+                continue;
+            }
+            double threshold = coarseRelativeThreshold*maxCoarse;
+            for (int k=0; k<numCoarse; k++){
+                if (coarseBuffer[k]>=threshold){
+                    int j = k*coarseStride;
+                    coverageBuffer[java.lang.Math.max(0, j-margin)] += 1;
+                    coverageBuffer[java.lang.Math.min(n, j+margin+1)] -= 1;
                 }
-                
             }
         }
-        Integer[] toReturn = maximaLocations.toArray(new Integer[maximaLocations.size()]);
-        //writeMaximaLocations(toReturn);
         
-        return toReturn;
+        // regions to refine
+        numComputedRanges = 0;
+        int covered = 0;
+        int rangeStart = -1;
+        for (int j=0; j<=n; j++){
+            covered += coverageBuffer[j];
+            boolean inRange = j<n && covered>0;
+            if (inRange && rangeStart<0){
+                rangeStart = j;
+            }
+            else if (!inRange && rangeStart>=0){
+                if (2*numComputedRanges+2>computedRanges.length){
+                    computedRanges = Arrays.copyOf(computedRanges, 2*computedRanges.length);
+                }
+                computedRanges[2*numComputedRanges] = rangeStart;
+                computedRanges[2*numComputedRanges+1] = j;
+                numComputedRanges += 1;
+                rangeStart = -1;
+            }
+        }
         
+        // fine pass
+        coefficients.clear();
+        for (int k=0; k<numComputedRanges; k++){
+            for (int i=0; i<NScales; i++){
+                fillCoefficients(i, computedRanges[2*k], computedRanges[2*k+1], evenlySpaced ? kernels[i] : null);
+            }
+        }
+        sparseCoefficients = true;
     }
     
-    public void getCoefficientsForAllScales(){
-        int NScales = arrScales.size();
-        allCoefficients = new double[NScales][];
-        int count = 0;
-        for (Double curScale: arrScales){
-            allCoefficients[count] = getCoefficientsForThisScale((double) curScale);
-            count+= 1;
+    private int decimationForScale(double waveletScale){
+        if (!(minDecimatedScale>0.0)){
+            return 1;
+        }
+        int d = 1;
+        while (waveletScale/(2*d)>=minDecimatedScale && 2*d<=x.length){
+            d *= 2;
+        }
+        return d;
+    }
+    
+    // Box average of the signal over d = 2, 4, ... maxDecimation scans. Block k covers scans
+    // k*d to k*d+d-1 (the last one may be shorter).
+    private void decimateSignal(int maxDecimation){
+        int level = 0;
+        for (int d=2; d<=maxDecimation; d*=2){
+            level += 1;
+            int numDecimated = (x.length+d-1)/d;
+            while (decimatedSignals.size()<=level){
+                decimatedSignals.add(null);
+            }
+            double[] decimated = decimatedSignals.get(level);
+            if (decimated==null || decimated.length<numDecimated){
+                decimated = new double[numDecimated];
+                decimatedSignals.set(level, decimated);
+            }
+            for (int k=0; k<numDecimated; k++){
+                int from = k*d;
+                int to = java.lang.Math.min(x.length, from+d);
+                double sum = 0.0;
+                for (int j=from; j<to; j++){
+                    sum += signal[j];
+                }
+                decimated[k] = sum/(to-from);
+            }
+        }
+    }
+    
+    // One scale computed on the signal decimated by d. The kernel for scale s/d at spacing dx*d is the
+    // same wavelet (same width in x) sampled at every d-th scan, and each decimated point stands for d
+    // scans, hence the factor d. Decimated point k sits at scan k*d+(d-1)/2, the scans in between are
+    // linearly interpolated. decimatedCoefs is scratch with room for the decimated signal.
+    private void fillCoefficientsDecimated(int scaleIndex, int d, double[] decimatedCoefs){
+        double[] decimated = decimatedSignals.get(Integer.numberOfTrailingZeros(d));
+        int numDecimated = (x.length+d-1)/d;
+        RickerKernel kernel = plan.getKernel(plan.getScale(scaleIndex)/d, avgXSpace*d);
+        for (int k=0; k<numDecimated; k++){
+            decimatedCoefs[k] = d*kernelInnerProduct(decimated, numDecimated, k, kernel);
+        }
+        
+        double center = (d-1)/2.0;
+        for (int j=0; j<x.length; j++){
+            double pos = (j-center)/d;
+            int left = (int) java.lang.Math.floor(pos);
+            double value;
+            if (left<0){
+                value = decimatedCoefs[0];
+            }
+            else if (left>=numDecimated-1){
+                value = decimatedCoefs[numDecimated-1];
+            }
+            else{
+                double frac = pos-left;
+                value = decimatedCoefs[left]*(1.0-frac)+decimatedCoefs[left+1]*frac;
+            }
+            coefficients.set(scaleIndex, j, value);
+        }
+    }
+    
+    // FFT length needed so the circular convolution does not wrap around into the signal
+    private int fftLengthForKernel(RickerKernel kernel){
+        int reach = java.lang.Math.max(-kernel.getLeftOffset(), kernel.getRightOffset());
+        return FastFourierTransform.nextPowerOfTwo(x.length+reach);
+    }
+    
+    private boolean useFFTForKernel(RickerKernel kernel){
+        if (convolutionMode==ConvolutionMode.DIRECT || x.length<2){
+            return false;
+        }
+        if (convolutionMode==ConvolutionMode.FFT){
+            return true;
         }
-        writeAllCoeffs();
+        if (!isEvenlySpaced()){
+            return false;
+        }
+        double directCost = ((double) kernel.getWidth())*x.length;
+        int n = fftLengthForKernel(kernel);
+        // kernel transform, inverse transform and the product
+        double fftCost = FFT_COST_FACTOR*(2.0*n*(java.lang.Math.log(n)/java.lang.Math.log(2.0)) + n);
+        return fftCost<directCost;
+    }
+    
+    // Same coefficients as getCoefficientsForThisScale but done as a convolution in frequency space.
+    // signalRe and signalIm are the transformed (zero padded) signal.
+    public double[] getCoefficientsForThisScaleFFT(RickerKernel kernel, double[] signalRe, double[] signalIm){
+        int n = signalRe.length;
+        double[] kernelRe = new double[n];
+        double[] kernelIm = new double[n];
+        spectralProduct(kernel, signalRe, signalIm, kernelRe, kernelIm);
+        
+        double[] coefficientsForThisScale = new double[x.length];
+        System.arraycopy(kernelRe, 0, coefficientsForThisScale, 0, x.length);
+        return coefficientsForThisScale;
+    }
+    
+    // As above but the result goes straight into the coefficient matrix. kernelRe and kernelIm are
+    // scratch space with the same length as the signal spectrum.
+    private void convolveWithKernelFFT(int scaleIndex, RickerKernel kernel,
+                                       double[] signalRe, double[] signalIm,
+                                       double[] kernelRe, double[] kernelIm){
+        spectralProduct(kernel, signalRe, signalIm, kernelRe, kernelIm);
+        for (int i=0; i<x.length; i++){
+            coefficients.set(scaleIndex, i, kernelRe[i]);
+        }
+    }
+    
+    // Leaves the convolution of the signal with the kernel in kernelRe (kernelIm is round off)
+    private void spectralProduct(RickerKernel kernel,
+                                 double[] signalRe, double[] signalIm,
+                                 double[] kernelRe, double[] kernelIm){
+        int n = signalRe.length;
+        int leftOffset = kernel.getLeftOffset();
+        int rightOffset = kernel.getRightOffset();
+        fill(kernelRe, 0.0);
+        fill(kernelIm, 0.0);
+        
+        // coefficient[i] = sum_k signal[i+k]*wavelet[k] which is a convolution with wavelet[-k]
+        for (int k=leftOffset; k<=rightOffset; k++){
+            int position = ((-k)%n+n)%n;
+            kernelRe[position] = kernel.valueAt(k);
+        }
+        FastFourierTransform.transform(kernelRe, kernelIm);
+        
+        for (int i=0; i<n; i++){
+            double re = signalRe[i]*kernelRe[i]-signalIm[i]*kernelIm[i];
+            double im = signalRe[i]*kernelIm[i]+signalIm[i]*kernelRe[i];
+            kernelRe[i] = re;
+            kernelIm[i] = im;
+        }
+        FastFourierTransform.inverseTransform(kernelRe, kernelIm);
     }
     
     public double[] getCoefficientsForThisScale(double waveletScale){
@@ -239,12 +975,33 @@ public class ContinuousWaveletTransform {
         return coefficientsForThisScale;
     }
     
+    // Same as above but with the wavelet taken from a precomputed kernel. Only valid for evenly spaced x.
+    public double[] getCoefficientsForThisScale(RickerKernel kernel){
+        double[] coefficientsForThisScale = new double[x.length];
+        for (int i=0; i<x.length; i++){
+            
+            double currentCoefficient = signalKernelInnerProductOnePoint(i,kernel);
+            coefficientsForThisScale[i] = currentCoefficient;
+            
+        }
+        return coefficientsForThisScale;
+    }
+    
     
     // This cfunciton needs to be carful with two things: 1) the boundries of the signal
     // were it needs to either pad or pretend to pad values below off the boundry. 2) The location
     // of the wavelet has to be set correctly.
     // Note: waveletScale is in units of indecies NOT rt or anything else
     public double signalWaveletInnerProductOnePoint(int xIndexOfWaveletMax, double waveletScale){
+        return signalWaveletInnerProductOnePoint(xIndexOfWaveletMax, waveletScale, null);
+    }
+    
+    // Nothing is allocated here: the signal is read in place and the wavelet is evaluated at the actual
+    // x distances. Same sum, in the same order, as the old copy into curX/curY/waveletY + innerProduct.
+    private double signalWaveletInnerProductOnePoint(int xIndexOfWaveletMax, double waveletScale, RickerKernel kernel){
+        if (kernel!=null){
+            return signalKernelInnerProductOnePoint(xIndexOfWaveletMax, kernel);
+        }
         
         int leftBoundIntegrate = (int) Math.round(xIndexOfWaveletMax-scaleCoefHowFarOut*waveletScale-1.0);
         int rightBoundIntegrate = (int) Math.round(xIndexOfWaveletMax+scaleCoefHowFarOut*waveletScale+1.0);
@@ -254,50 +1011,50 @@ public class ContinuousWaveletTransform {
         if (rightBoundIntegrate>=x.length){
             rightBoundIntegrate=x.length-1;
         }
-        
-        double[] curX = new double[rightBoundIntegrate-leftBoundIntegrate +1];
-        double[] curY = new double[rightBoundIntegrate-leftBoundIntegrate +1];
-        double[] waveletY = new double[rightBoundIntegrate-leftBoundIntegrate +1];
-        
-        int curIndex = 0;
+        double centerX = x[xIndexOfWaveletMax];
+        double sum = 0.0;
         for (int i=leftBoundIntegrate;i<=rightBoundIntegrate; i++){
-            curX[curIndex] = x[i];
-            curY[curIndex] = signal[i];
             // for the wavelt work in units of indecies because wavelt for  numbers smaller than one is not approriate.
-            waveletY[curIndex] = rickerWavelet(x[i]-x[xIndexOfWaveletMax], (double) waveletScale);
-            curIndex+=1;
+            sum += signal[i]*rickerWavelet(x[i]-centerX, waveletScale);
+        }
+        return sum;
+    }
+    
+    // Allocation free inner product of the signal with a precomputed kernel centered at xIndexOfWaveletMax.
+    // The kernel offsets are the same as the integration bounds above, so only the clipping at the ends
+    // of the signal has to be done here.
+    public double signalKernelInnerProductOnePoint(int xIndexOfWaveletMax, RickerKernel kernel){
+        return kernelInnerProduct(signal, x.length, xIndexOfWaveletMax, kernel);
+    }
+    
+    // data[0..length) times the kernel centered at center, nothing outside of data
+    private double kernelInnerProduct(double[] data, int length, int center, RickerKernel kernel){
+        int leftOffset = kernel.getLeftOffset();
+        int leftBoundIntegrate = center+leftOffset;
+        int rightBoundIntegrate = center+kernel.getRightOffset();
+        if (leftBoundIntegrate<0){
+            leftBoundIntegrate=0;
+        }
+        if (rightBoundIntegrate>=length){
+            rightBoundIntegrate=length-1;
         }
-//        double[] doublePtsCurX = doubleTheNumberOfPtsX(curX);
-//        double[] doublePtsDataY = doubleTheNumberOfPtsDataY(curY);
-//        double[] doublePtsWavelet = doubleTheNumberOfPtsWavelet(waveletY, (double) waveletScale);
-        
-        //writeDataAndWavelet(curX,curY,waveletY);
         
-        double innerProd = innerProduct(curX,curY,waveletY);
-        return innerProd;
+        int kernelIndex = leftBoundIntegrate-center-leftOffset;
+        return innerProductKernel.dot(data, leftBoundIntegrate,
+                                      kernel.values, kernelIndex,
+                                      rightBoundIntegrate-leftBoundIntegrate+1);
     }
     
     // This just takes an x value and the parameters of the wavelet and retuns the y value for that x
     public double rickerWavelet(double x,double scalParam){
-        scalParam = scalParam*avgXSpace;
-        double A = 2.0/Math.sqrt(3.0 * scalParam*Math.sqrt(Math.PI)) * (1.0-Math.pow(x, 2.0)/Math.pow(scalParam, 2.0));
-        return Math.exp(-Math.pow(x, 2.0)/(2.0*Math.pow(scalParam, 2)))*A;
+        return RickerKernel.rickerWavelet(x, scalParam, avgXSpace);
     }
     
     // This function can only take two arrays of equivelent length.
     // in the msconvert code they just add the wavelet * the intensity... Lets just do this 
     // for now to see if we can get the same results.
     public double innerProduct(double[] x, double[] arr1, double[] arr2){
-        int l = arr1.length;
-        double[] multArr = new double[arr1.length];
-        for (int i=0; i < l; i++){
-            multArr[i]= arr1[i]*arr2[i];
-        }
-        double sum = 0.0;
-        for (int i=0; i < l; i++){
-            sum+=multArr[i];
-        }
-        return sum;
+        return innerProductKernel.dot(arr1, 0, arr2, 0, arr1.length);
 //        // Because EICs can be messy best to just use trapazoidal rule
 //        double area = 0.0;
 //        for (int i=0; i < l-1; i++){
@@ -318,15 +1075,25 @@ public class ContinuousWaveletTransform {
     
     public void setSignal(double[] signalIn){
         signal = signalIn;
+        signalIndexCurrent = false;
     }
     public void setX(double[] xIn){
         x = xIn;
+        signalIndexCurrent = false;
         double curSumSpacing=0.0;
         for (int i=0; i <xIn.length-1; i++){
             curSumSpacing += xIn[i+1]-xIn[i];
         }
    
         avgXSpace = curSumSpacing/((double) (xIn.length-1));
+        
+        maxRelativeSpacingDeviation = 0.0;
+        for (int i=0; i <xIn.length-1; i++){
+            double curDeviation = Math.abs((xIn[i+1]-xIn[i])-avgXSpace)/avgXSpace;
+            if (curDeviation>maxRelativeSpacingDeviation){
+                maxRelativeSpacingDeviation = curDeviation;
+            }
+        }
     }
     
     public double[] doubleTheNumberOfPtsX(double[] xIn)
@@ -362,72 +1129,4 @@ public class ContinuousWaveletTransform {
 //    public void setWaveletType(String waveletTypeIn){
 //        waveletType = waveletTypeIn;
 //    }
-    private void writeDataAndWavelet(double[] x,double[] y,double[] wav){
-        try{
-            PrintWriter writer = new PrintWriter("look_at_wavelet_and_data.txt", "UTF-8");
-            for(int i = 0; i < x.length; i++){
-                writer.println(String.valueOf(x[i])+" "+String.valueOf(y[i])+" "+String.valueOf(wav[i]));
-            }
-            writer.close();
-        } catch (IOException e){
-            System.out.println("problem writinglook_at_wavelet_and_data.txt");
-        }
-    }
-    private void writeAllCoeffs(){
-        try{
-            PrintWriter writer = new PrintWriter("look_at_java_all_coefs.txt", "UTF-8");
-            for(int i = 0; i < allCoefficients.length; i++){
-                int j;
-                for( j = 0; j < allCoefficients[0].length; j++){
-                    writer.print(String.valueOf(allCoefficients[i][j])+" ");
-                }
-                writer.print("\n");
-            }
-            writer.close();
-        } catch (IOException e){
-            System.out.println("problem writing look_at_java_all_coefs.txt");
-        }
-    }
-    private void writeMaximaLocations(Integer[] maxIndecies){
-        try{
-            PrintWriter writer = new PrintWriter("look_at_maxima_positions.txt", "UTF-8");
-            for(int i = 0; i < maxIndecies.length; i++){
-                writer.print(String.valueOf(maxIndecies[i].toString()+" "));
-            }
-            writer.close();
-        } catch (IOException e){
-            System.out.print("problem writing look_at_maxima_positions.txt");
-        }
-    }
-    private void writeRidgelines(){
-        //make a blank matrix of zeros and fill with the locations of the ridgelines
-        double[][] ridgeArr = new double[arrScales.size()][];
-        
-        for (int i =0; i<arrScales.size(); i++){
-            ridgeArr[i]= new double[x.length];
-            fill(ridgeArr[i],0.0);
-        }
-        
-        for(int i = 0; i < ridgeLineArr.size(); i++){
-            Ridgeline curRL = ridgeLineArr.get(i);
-            for (int j=0; j<curRL.scales_.size();j++){
-                double curScale = curRL.scales_.get(j);
-                int curIndex = curRL.indecies_.get(j);
-                ridgeArr[mapScaleToIndex.get(curScale)][curIndex] = i+100;
-            }
-        }
-        
-        try{
-            PrintWriter writer = new PrintWriter("look_at_ridgelines.txt", "UTF-8");
-            for(int i = 0; i<arrScales.size(); i ++){
-                for (int j = 0; j < x.length; j++){
-                    writer.print(String.valueOf(ridgeArr[i][j])+" ");
-                }
-                writer.print("\n");
-            }
-            writer.close();
-        } catch (IOException e){
-            System.out.print("problem writing look_at_ridgelines.txt");
-        }
-    }
 }
@@ -0,0 +1,151 @@
+/*
+ * Copyright (C) 2016 Du-Lab Team <dulab.binf@gmail.com>
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+package dulab.adap.common.algorithms;
+
+import java.util.Arrays;
+
+/**
+ * Everything about a continuous wavelet transform that does not depend on the
+ * signal: the scales, the sampled wavelets and the ridgeline thresholds. A plan
+ * is immutable and can be shared by any number of threads, each with its own
+ * ContinuousWaveletTransform (the workspace holding the buffers for one signal
+ * at a time).
+ *
+ * @author owen myers
+ */
+public class ContinuousWaveletTransformPlan {
+    // how far in each direction from the current point do we need to grab data for a succesful wavelet transform?
+    // This number is the factor we multiply by the scale. 5 should be good because this is the estimated compact support
+    public static final int DEFAULT_SUPPORT_FACTOR = 5;
+    // For plans made from a ScaleGrid a ridgeline has to be found on at least this fraction of the
+    // scales (rounded up) to be kept. Gives the same as NScales-3, which the scale range constructors
+    // keep using, for the usual 10 scales.
+    public static final double MIN_RIDGELINE_FRACTION = 0.7;
+
+    // all scales will mbe measured in units of scans (indecies)
+    // Everything downstream addresses a scale by its index in this array, the value is only used
+    // for the wavelet itself and the tolerances that depend on it.
+    private final double[] scales;
+    private final int supportFactor;
+    private final int minRidgelineLength;
+    private final RickerKernelCache kernelCache;
+
+    // kernels of the last x spacing asked for. All the EICs of one sample share the spacing
+    // so this saves going to the kernel cache for every EIC.
+    private volatile KernelSet lastKernels;
+
+    public ContinuousWaveletTransformPlan(double smallScale,
+                                          double largeScale,
+                                          double incrementScale){
+        this(smallScale, largeScale, incrementScale, RickerKernelCache.getShared());
+    }
+
+    public ContinuousWaveletTransformPlan(double smallScale,
+                                          double largeScale,
+                                          double incrementScale,
+                                          RickerKernelCache kernelCacheIn){
+        this(ScaleGrid.linear(smallScale, largeScale, incrementScale), kernelCacheIn, false);
+    }
+
+    public ContinuousWaveletTransformPlan(ScaleGrid scaleGrid){
+        this(scaleGrid, RickerKernelCache.getShared());
+    }
+
+    public ContinuousWaveletTransformPlan(ScaleGrid scaleGrid, RickerKernelCache kernelCacheIn){
+        this(scaleGrid, kernelCacheIn, true);
+    }
+
+    private ContinuousWaveletTransformPlan(ScaleGrid scaleGrid, RickerKernelCache kernelCacheIn,
+                                           boolean fractionalMinRidgelineLength){
+        scales = scaleGrid.getScales();
+        supportFactor = DEFAULT_SUPPORT_FACTOR;
+        if (fractionalMinRidgelineLength){
+            // ceil(MIN_RIDGELINE_FRACTION*NScales) without 0.7*10 rounding up to 8
+            minRidgelineLength = (int) java.lang.Math.ceil(MIN_RIDGELINE_FRACTION*scales.length-1e-9);
+        }
+        else{
+            // When we make this CWT more general this check should be in terms of some precentage of the total number of scales.
+            // Unless you are always dividing the scale range by 10.
+            minRidgelineLength = scales.length-3;
+        }
+        kernelCache = kernelCacheIn;
+    }
+
+    public int getNumberOfScales(){
+        return scales.length;
+    }
+    public double getScale(int scaleIndex){
+        return scales[scaleIndex];
+    }
+    public double[] getScales(){
+        return scales.clone();
+    }
+    // Index of a scale that is part of this plan. Scales that are within rounding error of one
+    // of the plan's scales are matched to it.
+    public int getScaleIndex(double scale){
+        int found = Arrays.binarySearch(scales, scale);
+        if (found>=0){
+            return found;
+        }
+        int insertion = -found-1;
+        double epsilon = 0.000000001;
+        if (insertion<scales.length && java.lang.Math.abs(scales[insertion]-scale)<=epsilon){
+            return insertion;
+        }
+        if (insertion>0 && java.lang.Math.abs(scales[insertion-1]-scale)<=epsilon){
+            return insertion-1;
+        }
+        throw new IllegalArgumentException("Scale "+scale+" is not part of this plan");
+    }
+    public int getSupportFactor(){
+        return supportFactor;
+    }
+    // ridgelines shorter than this are thrown away by filterRidgelines
+    public int getMinRidgelineLength(){
+        return minRidgelineLength;
+    }
+
+    // Sampled wavelet for every scale of the plan. The array is shared and must not be changed.
+    public RickerKernel[] getKernels(double xSpacing){
+        KernelSet cur = lastKernels;
+        if (cur!=null && cur.xSpacing==xSpacing){
+            return cur.kernels;
+        }
+        RickerKernel[] kernels = new RickerKernel[scales.length];
+        for (int i=0; i<scales.length; i++){
+            kernels[i] = kernelCache.getKernel(scales[i], xSpacing, supportFactor);
+        }
+        lastKernels = new KernelSet(xSpacing, kernels);
+        return kernels;
+    }
+
+    // Sampled wavelet for a scale that does not have to be one of the plan's (e.g. for a decimated signal)
+    public RickerKernel getKernel(double scale, double xSpacing){
+        return kernelCache.getKernel(scale, xSpacing, supportFactor);
+    }
+
+    private static final class KernelSet {
+        final double xSpacing;
+        final RickerKernel[] kernels;
+
+        KernelSet(double xSpacingIn, RickerKernel[] kernelsIn){
+            xSpacing = xSpacingIn;
+            kernels = kernelsIn;
+        }
+    }
+}
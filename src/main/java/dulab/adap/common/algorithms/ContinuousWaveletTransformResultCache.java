@@ -0,0 +1,168 @@
+/*
+ * Copyright (C) 2016 Du-Lab Team <dulab.binf@gmail.com>
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+package dulab.adap.common.algorithms;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+import com.google.common.cache.Weigher;
+import dulab.adap.datamodel.Ridgeline;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Bounded, thread safe cache of the coefficients and ridgelines found by
+ * ContinuousWaveletTransform.buildRidgelines, for running the same EICs again
+ * (re-processing, QC reruns, looking at a sample again in a UI). Give it to any
+ * number of workspaces with setResultCache and buildRidgelines skips the
+ * transform for a signal it has already seen.
+ *
+ * Signals are told apart by a 64 bit hash of the intensities and one of the x
+ * values (plus the lengths and the settings of the workspace), not by the
+ * values themselves, so two different signals colliding is possible but very
+ * unlikely. The least recently used results are evicted once they take more
+ * than maximumBytes (roughly: the coefficients and the ridgeline points).
+ *
+ * @author owen myers
+ */
+public class ContinuousWaveletTransformResultCache {
+    private final Cache<Key, Result> results;
+
+    public ContinuousWaveletTransformResultCache(long maximumBytes){
+        results = CacheBuilder.newBuilder()
+                .maximumWeight(maximumBytes)
+                .weigher(new Weigher<Key, Result>() {
+                    @Override
+                    public int weigh(Key key, Result result) {
+                        return (int) java.lang.Math.min(Integer.MAX_VALUE, result.sizeInBytes);
+                    }
+                })
+                .recordStats()
+                .build();
+    }
+
+    // hits, misses and evictions since the cache was made
+    public CacheStats stats(){
+        return results.stats();
+    }
+    public long size(){
+        return results.size();
+    }
+    public void clear(){
+        results.invalidateAll();
+    }
+
+    Key keyFor(ContinuousWaveletTransform workspace){
+        double[] signal = workspace.getSignal();
+        double[] x = workspace.getX();
+        return new Key(hash(signal), signal.length, hash(x), x.length,
+                       workspace.resultCacheConfiguration());
+    }
+
+    // true and the workspace holds the old result if there was one
+    boolean restore(Key key, ContinuousWaveletTransform workspace){
+        Result result = results.getIfPresent(key);
+        if (result==null){
+            return false;
+        }
+        workspace.restoreRidgelines(result.coefficients, result.ridgelines);
+        return true;
+    }
+
+    // The coefficients are copied, the workspace reuses its matrix. Only a read only view of the copy
+    // is kept, so a workspace that restored it cannot change the result for everyone else. The
+    // ridgelines are done and not changed any more so the same objects are kept.
+    void store(Key key, CoefficientMatrix coefficients, List<Ridgeline> ridgelines){
+        results.put(key, new Result(coefficients.copy().readOnlyView(),
+                                    new ArrayList<Ridgeline>(ridgelines)));
+    }
+
+    // 64 bit hash of the exact bits of the values
+    static long hash(double[] values){
+        long h = 0x9E3779B97F4A7C15L^values.length;
+        for (double value : values){
+            h ^= mix(Double.doubleToLongBits(value));
+            h = Long.rotateLeft(h, 29)*0xBF58476D1CE4E5B9L;
+        }
+        return mix(h);
+    }
+
+    // finalizer of SplitMix64
+    private static long mix(long z){
+        z = (z^(z>>>30))*0xBF58476D1CE4E5B9L;
+        z = (z^(z>>>27))*0x94D049BB133111EBL;
+        return z^(z>>>31);
+    }
+
+    static final class Key {
+        private final long signalHash;
+        private final int signalLength;
+        private final long xHash;
+        private final int xLength;
+        private final String configuration;
+
+        Key(long signalHashIn, int signalLengthIn, long xHashIn, int xLengthIn, String configurationIn){
+            signalHash = signalHashIn;
+            signalLength = signalLengthIn;
+            xHash = xHashIn;
+            xLength = xLengthIn;
+            configuration = configurationIn;
+        }
+
+        @Override
+        public boolean equals(Object o){
+            if (this == o){
+                return true;
+            }
+            if (!(o instanceof Key)){
+                return false;
+            }
+            Key other = (Key) o;
+            return signalHash == other.signalHash
+                    && signalLength == other.signalLength
+                    && xHash == other.xHash
+                    && xLength == other.xLength
+                    && configuration.equals(other.configuration);
+        }
+
+        @Override
+        public int hashCode(){
+            int result = (int) (signalHash^(signalHash>>>32));
+            result = 31*result+(int) (xHash^(xHash>>>32));
+            result = 31*result+configuration.hashCode();
+            return result;
+        }
+    }
+
+    private static final class Result {
+        final CoefficientMatrix coefficients;
+        final List<Ridgeline> ridgelines;
+        final long sizeInBytes;
+
+        Result(CoefficientMatrix coefficientsIn, List<Ridgeline> ridgelinesIn){
+            coefficients = coefficientsIn;
+            ridgelines = ridgelinesIn;
+            // a ridgeline keeps a scale index, a scale, an index and a coefficient per scale
+            long ridgelineBytes = 0;
+            for (Ridgeline curRL : ridgelines){
+                ridgelineBytes += 64+24L*curRL.totalNumberOfScales;
+            }
+            sizeInBytes = coefficients.getSizeInBytes()+ridgelineBytes;
+        }
+    }
+}
@@ -0,0 +1,106 @@
+/*
+ * Copyright (C) 2016 Du-Lab Team <dulab.binf@gmail.com>
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+package dulab.adap.common.algorithms;
+
+/**
+ * In-place radix-2 fast Fourier transform working on separate real and
+ * imaginary arrays. Used by the continuous wavelet transform to do the
+ * convolution of the signal with the wavelet in O(N log N).
+ *
+ * @author owen myers
+ */
+public class FastFourierTransform {
+
+    // smallest power of two greater or equal to n
+    public static int nextPowerOfTwo(int n){
+        int p = 1;
+        while (p < n){
+            p <<= 1;
+        }
+        return p;
+    }
+
+    // Forward transform (no scaling). Length of the arrays has to be a power of two.
+    public static void transform(double[] re, double[] im){
+        transform(re, im, false);
+    }
+
+    // Inverse transform. Result is scaled by 1/n so that inverse(transform(a)) == a
+    public static void inverseTransform(double[] re, double[] im){
+        transform(re, im, true);
+        int n = re.length;
+        double scale = 1.0/n;
+        for (int i=0; i<n; i++){
+            re[i] *= scale;
+            im[i] *= scale;
+        }
+    }
+
+    private static void transform(double[] re, double[] im, boolean inverse){
+        int n = re.length;
+        if (n != im.length || (n & (n-1)) != 0){
+            throw new IllegalArgumentException("FFT length must be a power of two");
+        }
+
+        // bit reversal permutation
+        int j = 0;
+        for (int i=1; i<n; i++){
+            int bit = n >> 1;
+            while ((j & bit) != 0){
+                j ^= bit;
+                bit >>= 1;
+            }
+            j ^= bit;
+            if (i < j){
+                double tmp = re[i];
+                re[i] = re[j];
+                re[j] = tmp;
+                tmp = im[i];
+                im[i] = im[j];
+                im[j] = tmp;
+            }
+        }
+
+        // butterflies
+        double sign = inverse ? 1.0 : -1.0;
+        for (int len=2; len<=n; len<<=1){
+            double angle = sign*2.0*java.lang.Math.PI/len;
+            double wRe = java.lang.Math.cos(angle);
+            double wIm = java.lang.Math.sin(angle);
+            int half = len >> 1;
+            for (int start=0; start<n; start+=len){
+                double curRe = 1.0;
+                double curIm = 0.0;
+                for (int k=0; k<half; k++){
+                    int a = start+k;
+                    int b = a+half;
+                    double tRe = re[b]*curRe - im[b]*curIm;
+                    double tIm = re[b]*curIm + im[b]*curRe;
+                    re[b] = re[a]-tRe;
+                    im[b] = im[a]-tIm;
+                    re[a] += tRe;
+                    im[a] += tIm;
+
+                    double nextRe = curRe*wRe - curIm*wIm;
+                    curIm = curRe*wIm + curIm*wRe;
+                    curRe = nextRe;
+                }
+            }
+        }
+    }
+}
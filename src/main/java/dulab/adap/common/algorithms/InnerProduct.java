@@ -0,0 +1,77 @@
+/*
+ * Copyright (C) 2016 Du-Lab Team <dulab.binf@gmail.com>
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+package dulab.adap.common.algorithms;
+
+/**
+ * Dot product of two slices of double arrays. This is the inner loop of the
+ * direct convolution in the continuous wavelet transform. The plain version
+ * keeps four independent sums so the multiply-adds do not have to wait on each
+ * other. On Java 17+ a version using the vector API (VectorInnerProduct, in the
+ * java17 part of the multi-release jar) is picked when the
+ * jdk.incubator.vector module is available (--add-modules jdk.incubator.vector).
+ *
+ * Both add the products up in a different order than a single running sum so
+ * the results can differ from it in the last bits.
+ *
+ * @author owen myers
+ */
+public class InnerProduct {
+    private static final InnerProduct BEST = loadBest();
+
+    // the fastest implementation that works on this JVM
+    public static InnerProduct getBest(){
+        return BEST;
+    }
+
+    private static InnerProduct loadBest(){
+        try {
+            Class<?> vectorClass = Class.forName("dulab.adap.common.algorithms.VectorInnerProduct");
+            InnerProduct vectorInnerProduct = (InnerProduct) vectorClass.getDeclaredConstructor().newInstance();
+            // make sure the vector module really links before using it
+            vectorInnerProduct.dot(new double[8], 0, new double[8], 0, 8);
+            return vectorInnerProduct;
+        } catch (Throwable e){
+            // Java 8, or the incubator module was not added
+            return new InnerProduct();
+        }
+    }
+
+    // sum of a[aFrom+i]*b[bFrom+i] for i in [0, length)
+    public double dot(double[] a, int aFrom, double[] b, int bFrom, int length){
+        double sum0 = 0.0;
+        double sum1 = 0.0;
+        double sum2 = 0.0;
+        double sum3 = 0.0;
+        int i = 0;
+        int upper = length-3;
+        for (; i<upper; i+=4){
+            sum0 += a[aFrom+i]*b[bFrom+i];
+            sum1 += a[aFrom+i+1]*b[bFrom+i+1];
+            sum2 += a[aFrom+i+2]*b[bFrom+i+2];
+            sum3 += a[aFrom+i+3]*b[bFrom+i+3];
+        }
+        for (; i<length; i++){
+            sum0 += a[aFrom+i]*b[bFrom+i];
+        }
+        return (sum0+sum1)+(sum2+sum3);
+    }
+
+    public String getName(){
+        return "scalar";
+    }
+}
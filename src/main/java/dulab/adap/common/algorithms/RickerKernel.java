@@ -0,0 +1,78 @@
+/*
+ * Copyright (C) 2016 Du-Lab Team <dulab.binf@gmail.com>
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+package dulab.adap.common.algorithms;
+
+/**
+ * Ricker wavelet sampled at every index offset inside its compact support for
+ * one scale and one x spacing. Instances are immutable so they can be shared
+ * between threads (see RickerKernelCache).
+ *
+ * @author owen myers
+ */
+public class RickerKernel {
+    private final double scale;
+    private final double xSpacing;
+    // first and last offset from the center of the wavelet (in indecies)
+    private final int leftOffset;
+    private final int rightOffset;
+    // values[k-leftOffset] is the wavelet at offset k
+    final double[] values;
+
+    public RickerKernel(double scaleIn, double xSpacingIn, int supportFactor){
+        scale = scaleIn;
+        xSpacing = xSpacingIn;
+        // Same rounding as the integration bounds of the direct inner product
+        leftOffset = (int) java.lang.Math.round(-supportFactor*scale-1.0);
+        rightOffset = (int) java.lang.Math.round(supportFactor*scale+1.0);
+
+        values = new double[rightOffset-leftOffset+1];
+        for (int k=leftOffset; k<=rightOffset; k++){
+            values[k-leftOffset] = rickerWavelet(k*xSpacing, scale, xSpacing);
+        }
+    }
+
+    // Value of the Ricker wavelet at x where the scale is in units of indecies and
+    // xSpacing converts it to units of x.
+    public static double rickerWavelet(double x, double scalParam, double xSpacing){
+        scalParam = scalParam*xSpacing;
+        double A = 2.0/java.lang.Math.sqrt(3.0 * scalParam*java.lang.Math.sqrt(java.lang.Math.PI)) * (1.0-java.lang.Math.pow(x, 2.0)/java.lang.Math.pow(scalParam, 2.0));
+        return java.lang.Math.exp(-java.lang.Math.pow(x, 2.0)/(2.0*java.lang.Math.pow(scalParam, 2)))*A;
+    }
+
+    public double valueAt(int offset){
+        if (offset<leftOffset || offset>rightOffset){
+            return 0.0;
+        }
+        return values[offset-leftOffset];
+    }
+    public double getScale(){
+        return scale;
+    }
+    public double getXSpacing(){
+        return xSpacing;
+    }
+    public int getLeftOffset(){
+        return leftOffset;
+    }
+    public int getRightOffset(){
+        return rightOffset;
+    }
+    public int getWidth(){
+        return values.length;
+    }
+}
@@ -0,0 +1,98 @@
+/*
+ * Copyright (C) 2016 Du-Lab Team <dulab.binf@gmail.com>
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+package dulab.adap.common.algorithms;
+
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheLoader;
+import com.google.common.cache.LoadingCache;
+
+/**
+ * Bounded, thread safe cache of sampled Ricker wavelets keyed by scale, x spacing
+ * and support. All the EICs of a sample use the same scales and (almost) the same
+ * spacing so each kernel only has to be computed once. The least recently used
+ * kernels are evicted when the cache is full.
+ *
+ * @author owen myers
+ */
+public class RickerKernelCache {
+    public static final int DEFAULT_MAXIMUM_SIZE = 1024;
+
+    private static final RickerKernelCache SHARED = new RickerKernelCache(DEFAULT_MAXIMUM_SIZE);
+
+    private final LoadingCache<Key, RickerKernel> kernels;
+
+    public RickerKernelCache(long maximumSize){
+        kernels = CacheBuilder.newBuilder()
+                .maximumSize(maximumSize)
+                .build(new CacheLoader<Key, RickerKernel>() {
+                    @Override
+                    public RickerKernel load(Key key) {
+                        return new RickerKernel(key.scale, key.xSpacing, key.supportFactor);
+                    }
+                });
+    }
+
+    // The cache used by all ContinuousWaveletTransform objects unless they are given their own
+    public static RickerKernelCache getShared(){
+        return SHARED;
+    }
+
+    public RickerKernel getKernel(double scale, double xSpacing, int supportFactor){
+        return kernels.getUnchecked(new Key(scale, xSpacing, supportFactor));
+    }
+
+    public long size(){
+        return kernels.size();
+    }
+
+    public void clear(){
+        kernels.invalidateAll();
+    }
+
+    private static final class Key {
+        private final double scale;
+        private final double xSpacing;
+        private final int supportFactor;
+
+        Key(double scaleIn, double xSpacingIn, int supportFactorIn){
+            scale = scaleIn;
+            xSpacing = xSpacingIn;
+            supportFactor = supportFactorIn;
+        }
+
+        @Override
+        public boolean equals(Object o){
+            if (this == o){
+                return true;
+            }
+            if (!(o instanceof Key)){
+                return false;
+            }
+            Key other = (Key) o;
+            return Double.doubleToLongBits(scale) == Double.doubleToLongBits(other.scale)
+                    && Double.doubleToLongBits(xSpacing) == Double.doubleToLongBits(other.xSpacing)
+                    && supportFactor == other.supportFactor;
+        }
+
+        @Override
+        public int hashCode(){
+            long bits = Double.doubleToLongBits(scale)*31 + Double.doubleToLongBits(xSpacing);
+            return (int) (bits ^ (bits >>> 32))*31 + supportFactor;
+        }
+    }
+}
@@ -0,0 +1,119 @@
+/*
+ * Copyright (C) 2016 Du-Lab Team <dulab.binf@gmail.com>
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+package dulab.adap.common.algorithms;
+
+import java.util.Arrays;
+
+/**
+ * The wavelet scales of a continuous wavelet transform, in units of scans and
+ * in increasing order. Linear grids spend most of the work on the large scales
+ * where the wavelets are widest and next to each other almost the same, a
+ * logarithmic grid covers the same peak widths with fewer scales.
+ *
+ * @author owen myers
+ */
+public class ScaleGrid {
+    private final double[] scales;
+
+    private ScaleGrid(double[] scalesIn){
+        if (scalesIn.length==0){
+            throw new IllegalArgumentException("A scale grid needs at least one scale");
+        }
+        for (int i=0; i<scalesIn.length; i++){
+            if (!(scalesIn[i]>0.0)){
+                throw new IllegalArgumentException("Scales have to be positive");
+            }
+            if (i>0 && scalesIn[i]<=scalesIn[i-1]){
+                throw new IllegalArgumentException("Scales have to be strictly increasing");
+            }
+        }
+        scales = scalesIn;
+    }
+
+    // smallScale, smallScale+incrementScale, ... up to and including largeScale.
+    // The scales are computed from their index and not by adding up the increment so the grid does
+    // not depend on rounding error. The small slack keeps largeScale in when (large-small)/inc is a
+    // whole number up to rounding.
+    public static ScaleGrid linear(double smallScale, double largeScale, double incrementScale){
+        if (!(incrementScale>0.0) || largeScale<smallScale){
+            throw new IllegalArgumentException("Need incrementScale > 0 and largeScale >= smallScale");
+        }
+        int numScales = (int) java.lang.Math.floor((largeScale-smallScale)/incrementScale+1e-9)+1;
+        double[] scales = new double[numScales];
+        for (int i=0; i<numScales; i++){
+            scales[i] = smallScale+i*incrementScale;
+        }
+        return new ScaleGrid(scales);
+    }
+
+    // numScales evenly spaced scales from smallScale to largeScale
+    public static ScaleGrid linearCount(double smallScale, double largeScale, int numScales){
+        if (numScales==1){
+            return explicit(smallScale);
+        }
+        if (numScales<1 || largeScale<=smallScale){
+            throw new IllegalArgumentException("Need numScales >= 1 and largeScale > smallScale");
+        }
+        double incrementScale = (largeScale-smallScale)/(numScales-1);
+        double[] scales = new double[numScales];
+        for (int i=0; i<numScales; i++){
+            scales[i] = smallScale+i*incrementScale;
+        }
+        return new ScaleGrid(scales);
+    }
+
+    // numScales scales from smallScale to largeScale with the same ratio between neighbours
+    public static ScaleGrid logarithmic(double smallScale, double largeScale, int numScales){
+        if (numScales==1){
+            return explicit(smallScale);
+        }
+        if (numScales<1 || !(smallScale>0.0) || largeScale<=smallScale){
+            throw new IllegalArgumentException("Need numScales >= 1 and 0 < smallScale < largeScale");
+        }
+        double logSmall = java.lang.Math.log(smallScale);
+        double logStep = (java.lang.Math.log(largeScale)-logSmall)/(numScales-1);
+        double[] scales = new double[numScales];
+        for (int i=0; i<numScales; i++){
+            scales[i] = java.lang.Math.exp(logSmall+i*logStep);
+        }
+        // exactly the requested end points
+        scales[0] = smallScale;
+        scales[numScales-1] = largeScale;
+        return new ScaleGrid(scales);
+    }
+
+    // Any increasing list of positive scales
+    public static ScaleGrid explicit(double... scales){
+        return new ScaleGrid(scales.clone());
+    }
+
+    public int getNumberOfScales(){
+        return scales.length;
+    }
+    public double getScale(int scaleIndex){
+        return scales[scaleIndex];
+    }
+    public double[] getScales(){
+        return scales.clone();
+    }
+
+    @Override
+    public String toString(){
+        return "ScaleGrid"+Arrays.toString(scales);
+    }
+}
@@ -0,0 +1,178 @@
+/*
+ * Copyright (C) 2016 Du-Lab Team <dulab.binf@gmail.com>
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+package dulab.adap.common.algorithms;
+
+/**
+ * Range statistics of one EIC in O(1) after an O(N log N) build, for checking
+ * many candidate peaks of the same signal. All ranges are in scans and
+ * inclusive on both ends.
+ * 
+ * The counts, the nonzero positions and the maximum give exactly what a loop
+ * over the range gives. The sums and areas are differences of prefix sums and
+ * can differ from a loop in the last bits.
+ * 
+ * The arrays are reused when build is called again with a signal of at most
+ * the same length.
+ *
+ * @author owen myers
+ */
+public class SignalIndex {
+    // intensities below this count as zero in countNearZero
+    public static final double NEAR_ZERO = 0.0001;
+    
+    private int n = 0;
+    private double[] intensity;
+    // prefixSum[i] is the sum of the first i intensities
+    private double[] prefixSum;
+    // prefixArea[i] is the trapezoid area from scan 0 to scan i
+    private double[] prefixArea;
+    // prefixNearZero[i] is the number of the first i intensities below NEAR_ZERO
+    private int[] prefixNearZero;
+    // nextNonzero[i] is the first scan >= i with intensity != 0, n if there is none
+    private int[] nextNonzero;
+    // previousNonzero[i] is the last scan <= i with intensity != 0, -1 if there is none
+    private int[] previousNonzero;
+    // maxTable[k][i] is the scan of the largest intensity in [i, i+2^k), the first one on ties
+    private int[][] maxTable = new int[0][];
+    // floorLog2[m] for range lengths m
+    private int[] floorLog2;
+    
+    public void build(double[] intensityIn, double[] retentionTimes){
+        n = intensityIn.length;
+        intensity = intensityIn;
+        if (prefixSum==null || prefixSum.length<n+1){
+            prefixSum = new double[n+1];
+            prefixArea = new double[n+1];
+            prefixNearZero = new int[n+1];
+            nextNonzero = new int[n+1];
+            previousNonzero = new int[n+1];
+            floorLog2 = new int[n+1];
+        }
+        
+        prefixSum[0] = 0.0;
+        prefixNearZero[0] = 0;
+        for (int i=0; i<n; i++){
+            prefixSum[i+1] = prefixSum[i]+intensity[i];
+            prefixNearZero[i+1] = prefixNearZero[i]+(intensity[i]<NEAR_ZERO ? 1 : 0);
+        }
+        // same terms as FeatureTools.trapazoidAreaUnderCurve
+        if (n>0){
+            prefixArea[0] = 0.0;
+        }
+        for (int i=0; i+1<n; i++){
+            double w = retentionTimes[i+1]-retentionTimes[i];
+            double triangle = .5*w*java.lang.Math.abs(intensity[i]-intensity[i+1]);
+            double h = java.lang.Math.min(intensity[i], intensity[i+1]);
+            prefixArea[i+1] = prefixArea[i]+triangle+w*h;
+        }
+        
+        nextNonzero[n] = n;
+        for (int i=n-1; i>=0; i--){
+            nextNonzero[i] = intensity[i]!=0.0 ? i : nextNonzero[i+1];
+        }
+        int last = -1;
+        for (int i=0; i<n; i++){
+            if (intensity[i]!=0.0){
+                last = i;
+            }
+            previousNonzero[i] = last;
+        }
+        
+        buildMaxTable();
+    }
+    
+    private void buildMaxTable(){
+        if (n>0){
+            floorLog2[1] = 0;
+        }
+        for (int m=2; m<=n; m++){
+            floorLog2[m] = floorLog2[m/2]+1;
+        }
+        int levels = n==0 ? 0 : floorLog2[n]+1;
+        if (maxTable.length<levels){
+            maxTable = java.util.Arrays.copyOf(maxTable, levels);
+        }
+        for (int k=0; k<levels; k++){
+            if (maxTable[k]==null || maxTable[k].length<n){
+                maxTable[k] = new int[n];
+            }
+        }
+        for (int i=0; i<n; i++){
+            maxTable[0][i] = i;
+        }
+        for (int k=1; k<levels; k++){
+            int half = 1<<(k-1);
+            int[] prev = maxTable[k-1];
+            int[] cur = maxTable[k];
+            for (int i=0; i+(1<<k)<=n; i++){
+                cur[i] = firstOfMax(prev[i], prev[i+half]);
+            }
+        }
+    }
+    
+    // a is not after b, the later scan only wins when it is strictly larger
+    private int firstOfMax(int a, int b){
+        return intensity[b]>intensity[a] ? b : a;
+    }
+    
+    public int getNumPoints(){
+        return n;
+    }
+    
+    public double sum(int from, int to){
+        return prefixSum[to+1]-prefixSum[from];
+    }
+    
+    // FeatureTools.findMeanOfSignal
+    public double mean(int from, int to){
+        return sum(from, to)/((double) (to-from+1));
+    }
+    
+    // FeatureTools.trapazoidAreaUnderCurve
+    public double trapezoidArea(int from, int to){
+        if (to<=from){
+            return 0.0;
+        }
+        return prefixArea[to]-prefixArea[from];
+    }
+    
+    // number of intensities below NEAR_ZERO
+    public int countNearZero(int from, int to){
+        return prefixNearZero[to+1]-prefixNearZero[from];
+    }
+    
+    // the first scan >= i with intensity != 0, getNumPoints() if there is none
+    public int nextNonzero(int i){
+        return nextNonzero[i];
+    }
+    
+    // the last scan <= i with intensity != 0, -1 if there is none
+    public int previousNonzero(int i){
+        return previousNonzero[i];
+    }
+    
+    // the scan of the largest intensity in the range, the first one when several are the largest
+    public int indexOfMax(int from, int to){
+        int k = floorLog2[to-from+1];
+        return firstOfMax(maxTable[k][from], maxTable[k][to-(1<<k)+1]);
+    }
+    
+    public double max(int from, int to){
+        return intensity[indexOfMax(from, to)];
+    }
+}
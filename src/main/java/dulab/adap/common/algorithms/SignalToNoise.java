@@ -85,6 +85,52 @@ public class SignalToNoise {
          return toReturnSN;
     }
 
+    // Same estimate as above but reading the smallest scale straight out of the coefficient matrix.
+    // The absolute values are taken on the fly so the matrix is not changed.
+    public static double findSNUsingWaveletCoefficents(CoefficientMatrix coefficients,
+                                                        double bestCoeff, 
+                                                        int peakLeft,
+                                                        int peakRight,
+                                                        double windowSizeMult,
+                                                        boolean absWaveCoeffs)
+    {
+        int peakWidth = peakRight-peakLeft;
+
+        int leftRightWindowSize=(int)java.lang.Math.round(windowSizeMult*peakWidth);
+        int smallestScaleIndex = 0;
+        int numPoints = coefficients.getNumPoints();
+        
+        List <Double> coefsUsedForSN = new ArrayList<Double>();
+        // around the peak
+        int index = peakRight+1;
+        while ((index<numPoints)&&((index-peakRight)<(leftRightWindowSize))){
+           coefsUsedForSN.add(smallestScaleCoefficient(coefficients, smallestScaleIndex, index, absWaveCoeffs));
+           index++;
+        }
+        index = peakLeft-1;
+        while ((index>0)&&((peakLeft-index)<(leftRightWindowSize))){
+           coefsUsedForSN.add(smallestScaleCoefficient(coefficients, smallestScaleIndex, index, absWaveCoeffs));
+           index--;
+        }
+        // the peak
+        index = peakLeft;
+        while (index <= peakRight){
+            coefsUsedForSN.add(smallestScaleCoefficient(coefficients, smallestScaleIndex, index, absWaveCoeffs));
+            index++;
+        }
+        
+        double quantile = getQuantile(coefsUsedForSN, 0.95);
+        return bestCoeff / quantile;
+    }
+    
+    private static double smallestScaleCoefficient(CoefficientMatrix coefficients, int scaleIndex, int index, boolean absWaveCoeffs){
+        double value = coefficients.get(scaleIndex, index);
+        if (absWaveCoeffs){
+            return java.lang.Math.abs(value);
+        }
+        return value;
+    }
+
     /**
      * Estimate quantile of the list of values
      *
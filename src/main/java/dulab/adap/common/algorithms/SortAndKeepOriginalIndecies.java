@@ -38,6 +38,44 @@ public class SortAndKeepOriginalIndecies implements Comparator<Integer>{
         return indecies;
     }
     
+    // Primitive version of Arrays.sort(indecies,comparator) for the first length entries: sorts the
+    // indecies by ascending value, keeping the original order of equal values (stable, like the
+    // object sort). scratch has to be at least length long.
+    public static void sortIndecies(double[] values, int[] indecies, int[] scratch, int length){
+        int[] from = indecies;
+        int[] to = scratch;
+        for (int width=1; width<length; width*=2){
+            for (int start=0; start<length; start+=2*width){
+                int mid = java.lang.Math.min(start+width, length);
+                int end = java.lang.Math.min(start+2*width, length);
+                int left = start;
+                int right = mid;
+                int out = start;
+                while (left<mid && right<end){
+                    // only take from the right when it is strictly smaller so equal values keep their order
+                    if (values[from[right]]<values[from[left]]){
+                        to[out++] = from[right++];
+                    }
+                    else{
+                        to[out++] = from[left++];
+                    }
+                }
+                while (left<mid){
+                    to[out++] = from[left++];
+                }
+                while (right<end){
+                    to[out++] = from[right++];
+                }
+            }
+            int[] tmp = from;
+            from = to;
+            to = tmp;
+        }
+        if (from!=indecies){
+            System.arraycopy(from, 0, indecies, 0, length);
+        }
+    }
+    
     @Override
     public int compare(Integer index1, Integer index2)
     {
@@ -0,0 +1,165 @@
+/*
+ * Copyright (C) 2016 Du-Lab Team <dulab.binf@gmail.com>
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+package dulab.adap.common.algorithms;
+
+/**
+ * Continuous wavelet transform of a signal that arrives a few scans at a time,
+ * e.g. while the acquisition is still running or for EICs too long to keep in
+ * memory. The scans have to be evenly spaced (xSpacing) because the sampled
+ * wavelets of the plan are used.
+ *
+ * Only the scans that the widest wavelet can still reach are kept, about
+ * 2*5*largestScale of them. The coefficients of a scan (one per scale, a column
+ * of the coefficient matrix) are given to the listener as soon as the scans up
+ * to the right edge of the widest wavelet have arrived, and the rest when
+ * finish() is called. Every column is the same as the direct sampled-kernel
+ * coefficients of ContinuousWaveletTransform for the whole signal: the ends of
+ * the signal are treated the same way.
+ *
+ * Not thread safe, one instance per signal.
+ *
+ * @author owen myers
+ */
+public class StreamingContinuousWaveletTransform {
+
+    public interface ColumnListener {
+        // coefficients[i] is the coefficient of scale i of the plan at scan scanIndex. The
+        // array is reused for the next column so copy what has to be kept.
+        void columnComputed(long scanIndex, double[] coefficients);
+        // called once by finish() after the last column, numScans is the length of the signal
+        void finished(long numScans);
+    }
+
+    private final ContinuousWaveletTransformPlan plan;
+    private final RickerKernel[] kernels;
+    private final ColumnListener listener;
+    // how far the widest wavelet reaches to the left and right of its center (in scans)
+    private final int maxLeftReach;
+    private final int maxRightReach;
+    private InnerProduct innerProduct = InnerProduct.getBest();
+
+    // scans bufferStart to bufferStart+bufferLength-1 of the signal
+    private final double[] buffer;
+    private long bufferStart = 0;
+    private int bufferLength = 0;
+    private long numScans = 0;
+    // the next column to give to the listener
+    private long nextColumn = 0;
+    private final double[] column;
+    private boolean finished = false;
+
+    public StreamingContinuousWaveletTransform(ContinuousWaveletTransformPlan planIn,
+                                               double xSpacing,
+                                               ColumnListener listenerIn){
+        plan = planIn;
+        kernels = plan.getKernels(xSpacing);
+        listener = listenerIn;
+        int leftReach = 0;
+        int rightReach = 0;
+        for (RickerKernel kernel : kernels){
+            leftReach = java.lang.Math.max(leftReach, -kernel.getLeftOffset());
+            rightReach = java.lang.Math.max(rightReach, kernel.getRightOffset());
+        }
+        maxLeftReach = leftReach;
+        maxRightReach = rightReach;
+        // twice the window so old scans only have to be moved out once every window scans
+        buffer = new double[2*getWindowSize()];
+        column = new double[kernels.length];
+    }
+
+    public void setInnerProduct(InnerProduct innerProductIn){
+        innerProduct = innerProductIn;
+    }
+
+    // number of scans kept in memory
+    public int getWindowSize(){
+        return maxLeftReach+maxRightReach+1;
+    }
+    public long getNumScans(){
+        return numScans;
+    }
+    // number of columns given to the listener so far
+    public long getNumColumns(){
+        return nextColumn;
+    }
+    public ContinuousWaveletTransformPlan getPlan(){
+        return plan;
+    }
+
+    public void addScans(double[] intensity){
+        addScans(intensity, 0, intensity.length);
+    }
+
+    // appends intensity[from..to) to the signal
+    public void addScans(double[] intensity, int from, int to){
+        if (finished){
+            throw new IllegalStateException("finish() was already called");
+        }
+        for (int i=from; i<to; i++){
+            if (bufferLength==buffer.length){
+                dropOldScans();
+            }
+            buffer[bufferLength] = intensity[i];
+            bufferLength += 1;
+            numScans += 1;
+
+            // the widest wavelet centered on nextColumn now has all of its scans
+            if (nextColumn+maxRightReach<numScans){
+                emitColumn(nextColumn);
+                nextColumn += 1;
+            }
+        }
+    }
+
+    // No more scans. The remaining columns are computed with nothing to the right of the last scan.
+    public void finish(){
+        if (finished){
+            return;
+        }
+        finished = true;
+        while (nextColumn<numScans){
+            emitColumn(nextColumn);
+            nextColumn += 1;
+        }
+        listener.finished(numScans);
+    }
+
+    // keeps the scans the next column still needs
+    private void dropOldScans(){
+        long keepFrom = java.lang.Math.max(bufferStart, nextColumn-maxLeftReach);
+        int drop = (int) (keepFrom-bufferStart);
+        System.arraycopy(buffer, drop, buffer, 0, bufferLength-drop);
+        bufferLength -= drop;
+        bufferStart = keepFrom;
+    }
+
+    private void emitColumn(long scanIndex){
+        long lastScan = numScans-1;
+        for (int i=0; i<kernels.length; i++){
+            RickerKernel kernel = kernels[i];
+            // same clipping as ContinuousWaveletTransform.signalKernelInnerProductOnePoint
+            long leftBound = java.lang.Math.max(0, scanIndex+kernel.getLeftOffset());
+            long rightBound = java.lang.Math.min(lastScan, scanIndex+kernel.getRightOffset());
+            int kernelIndex = (int) (leftBound-scanIndex-kernel.getLeftOffset());
+            column[i] = innerProduct.dot(buffer, (int) (leftBound-bufferStart),
+                                         kernel.values, kernelIndex,
+                                         (int) (rightBound-leftBound+1));
+        }
+        listener.columnComputed(scanIndex, column);
+    }
+}
@@ -0,0 +1,148 @@
+/*
+ * Copyright (C) 2016 Du-Lab Team <dulab.binf@gmail.com>
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+package dulab.adap.common.algorithms;
+
+import dulab.adap.datamodel.Ridgeline;
+
+/**
+ * Builds ridgelines from the columns of a StreamingContinuousWaveletTransform
+ * and hands them out as soon as they can no longer change, so peaks can be
+ * picked while the signal is still arriving.
+ *
+ * The scans are cut into segments of segmentLength. Once margin more columns
+ * after a segment are in, the ridgelines of the segment plus margin on each
+ * side are built (and filtered) the same way ContinuousWaveletTransform does for
+ * a whole signal, and the ones with their best point inside the segment are
+ * given to the listener. Ridgelines with their best point in a margin belong to
+ * the neighbouring segment.
+ *
+ * This is close to, but not exactly, the result for the whole signal: the
+ * maxima of a scale and the ridgelines running through them are found within
+ * the segment plus margins, so a ridgeline that wanders more than margin scans
+ * or a maximum that is suppressed by a larger one outside of the margins can
+ * come out differently near the segment boundaries. The default margin is the
+ * reach of the widest wavelet.
+ *
+ * @author owen myers
+ */
+public class StreamingRidgelineBuilder implements StreamingContinuousWaveletTransform.ColumnListener {
+
+    public interface RidgelineListener {
+        // A ridgeline that will not change any more. Its indecies are relative to firstScan, the
+        // scan of the best point is firstScan+ridgeline.getBestIndex().
+        void ridgelineFinished(Ridgeline ridgeline, long firstScan);
+    }
+
+    private final ContinuousWaveletTransformPlan plan;
+    private final RidgelineListener listener;
+    private final int segmentLength;
+    private final int margin;
+    // ridgelines of one segment at a time
+    private final ContinuousWaveletTransform workspace;
+    private final CoefficientMatrix segmentCoefficients;
+
+    // columns windowStart to windowStart+windowLength-1, window[scale][column]
+    private final double[][] window;
+    private long windowStart = 0;
+    private int windowLength = 0;
+    // first scan of the segment waiting for its columns
+    private long segmentStart = 0;
+
+    public StreamingRidgelineBuilder(StreamingContinuousWaveletTransform transform,
+                                     RidgelineListener listenerIn){
+        this(transform.getPlan(), transform.getWindowSize(), 4*transform.getWindowSize(), listenerIn);
+    }
+
+    public StreamingRidgelineBuilder(ContinuousWaveletTransformPlan planIn,
+                                     int marginIn,
+                                     int segmentLengthIn,
+                                     RidgelineListener listenerIn){
+        if (marginIn<0 || segmentLengthIn<1){
+            throw new IllegalArgumentException("Need margin >= 0 and segmentLength >= 1");
+        }
+        plan = planIn;
+        margin = marginIn;
+        segmentLength = segmentLengthIn;
+        listener = listenerIn;
+        workspace = new ContinuousWaveletTransform(plan);
+        window = new double[plan.getNumberOfScales()][segmentLength+2*margin];
+        segmentCoefficients = new CoefficientMatrix(plan.getNumberOfScales(),
+                                                    segmentLength+2*margin,
+                                                    CoefficientMatrix.Precision.DOUBLE);
+    }
+
+    public void setIndexedRidgelineLinking(boolean indexedIn){
+        workspace.setIndexedRidgelineLinking(indexedIn);
+    }
+
+    @Override
+    public void columnComputed(long scanIndex, double[] coefficients){
+        if (scanIndex!=windowStart+windowLength){
+            throw new IllegalStateException("Columns have to come in order");
+        }
+        for (int i=0; i<window.length; i++){
+            window[i][windowLength] = coefficients[i];
+        }
+        windowLength += 1;
+
+        if (scanIndex+1>=segmentStart+segmentLength+margin){
+            finishSegment(segmentStart+segmentLength, scanIndex+1);
+        }
+    }
+
+    @Override
+    public void finished(long numScans){
+        while (segmentStart<numScans){
+            finishSegment(java.lang.Math.min(segmentStart+segmentLength, numScans), numScans);
+        }
+    }
+
+    // Builds the ridgelines of the segment segmentStart..segmentEnd-1 with the margins, as far as the
+    // columns go (available), and moves on to the next segment.
+    private void finishSegment(long segmentEnd, long available){
+        long from = java.lang.Math.max(windowStart, segmentStart-margin);
+        long to = java.lang.Math.min(available, segmentEnd+margin);
+        int numColumns = (int) (to-from);
+        int offset = (int) (from-windowStart);
+
+        segmentCoefficients.reshape(window.length, numColumns);
+        for (int i=0; i<window.length; i++){
+            for (int j=0; j<numColumns; j++){
+                segmentCoefficients.set(i, j, window[i][offset+j]);
+            }
+        }
+        workspace.buildRidgelines(segmentCoefficients);
+        workspace.filterRidgelines();
+        for (Ridgeline curRL : workspace.getRidgelines()){
+            long bestScan = from+curRL.getBestIndex();
+            if (bestScan>=segmentStart && bestScan<segmentEnd){
+                listener.ridgelineFinished(curRL, from);
+            }
+        }
+
+        // the next segment only needs the columns from its left margin on
+        segmentStart = segmentEnd;
+        long keepFrom = java.lang.Math.max(windowStart, segmentStart-margin);
+        int drop = (int) (keepFrom-windowStart);
+        for (int i=0; i<window.length; i++){
+            System.arraycopy(window[i], drop, window[i], 0, windowLength-drop);
+        }
+        windowLength -= drop;
+        windowStart = keepFrom;
+    }
+}
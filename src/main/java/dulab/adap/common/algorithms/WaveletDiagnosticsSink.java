@@ -0,0 +1,37 @@
+/*
+ * Copyright (C) 2016 Du-Lab Team <dulab.binf@gmail.com>
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+package dulab.adap.common.algorithms;
+
+import dulab.adap.datamodel.Ridgeline;
+import java.util.List;
+
+/**
+ * Receives the intermediate results of a ContinuousWaveletTransform for
+ * debugging. Nothing is called when no sink is installed. The arguments are
+ * only valid during the call, so a sink that keeps them has to copy them.
+ *
+ * @author owen myers
+ */
+public interface WaveletDiagnosticsSink {
+
+    // called once all the coefficients have been computed. scales[i] is the scale of row i.
+    void coefficientsComputed(double[] scales, CoefficientMatrix coefficients);
+
+    // called at the end of buildRidgelines
+    void ridgelinesBuilt(double[] scales, int numPoints, List<Ridgeline> ridgelines);
+}
@@ -0,0 +1,65 @@
+/*
+ * Copyright (C) 2016 Du-Lab Team <dulab.binf@gmail.com>
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+package dulab.adap.datamodel;
+
+import java.util.Arrays;
+
+/**
+ * The peaks the wavelet transform hands to the deconvolution filters: for every
+ * ridgeline that is left the bounds of the peak (scans, inclusive) and the best
+ * coefficient of the ridgeline. The arrays grow to the largest number of
+ * candidates seen and are reused, only the first size() entries are valid.
+ *
+ * @author owen myers
+ */
+public class PeakCandidates {
+    private int[] leftBounds = new int[16];
+    private int[] rightBounds = new int[16];
+    private double[] bestCoefficients = new double[16];
+    private int size = 0;
+
+    public void clear(){
+        size = 0;
+    }
+
+    public void add(int leftBound, int rightBound, double bestCoefficient){
+        if (size==leftBounds.length){
+            int newLength = 2*leftBounds.length;
+            leftBounds = Arrays.copyOf(leftBounds, newLength);
+            rightBounds = Arrays.copyOf(rightBounds, newLength);
+            bestCoefficients = Arrays.copyOf(bestCoefficients, newLength);
+        }
+        leftBounds[size] = leftBound;
+        rightBounds[size] = rightBound;
+        bestCoefficients[size] = bestCoefficient;
+        size += 1;
+    }
+
+    public int size(){
+        return size;
+    }
+    public int getLeftBound(int i){
+        return leftBounds[i];
+    }
+    public int getRightBound(int i){
+        return rightBounds[i];
+    }
+    public double getBestCoefficient(int i){
+        return bestCoefficients[i];
+    }
+}
@@ -17,8 +17,6 @@
  */
 package dulab.adap.datamodel;
 
-import java.util.ArrayList;
-
 /**
  *
  * @author owen myers
@@ -26,76 +24,138 @@ import java.util.ArrayList;
 public class Ridgeline {
     public int totalNumberOfScales;
     
-    // These are public for priting reasons and debuging. When everything is
-    // done they can be made private.
-    public ArrayList<Double> scales_ = new ArrayList<Double>();
-    public ArrayList<Integer> indecies_ = new ArrayList<Integer>();
+    // A ridgeline has at most one point per scale so the arrays are allocated with
+    // totalNumberOfScales entries and the first length_ of them are used.
+    // Points are matched to scales by the index of the scale in the transform, the
+    // scale itself is kept for the peak width and the index tolerance.
+    private int[] scaleIndecies_;
+    private double[] scales_;
+    private int[] indecies_;
     
     // Correlation values
-    private ArrayList<Double> corValues_ = new ArrayList<Double>();
+    private double[] corValues_;
+    private int length_;
+    // position of the first point with the largest correlation value, kept up to date as points are added
+    private int bestPosition_;
     private int curRunningGap_;
     
-    public Ridgeline(double firstScale,
+    public Ridgeline(int firstScaleIndex,
+                     double firstScale,
                      int firstIndex,
                      double corValue,
                      int NScales){
-        scales_.add(firstScale);
-        indecies_.add(firstIndex);
-        corValues_.add(corValue);
+        int capacity = java.lang.Math.max(NScales, 1);
+        scaleIndecies_ = new int[capacity];
+        scales_ = new double[capacity];
+        indecies_ = new int[capacity];
+        corValues_ = new double[capacity];
+        scaleIndecies_[0] = firstScaleIndex;
+        scales_[0] = firstScale;
+        indecies_[0] = firstIndex;
+        corValues_[0] = corValue;
+        length_ = 1;
+        bestPosition_ = 0;
         curRunningGap_ = 0;
         totalNumberOfScales = NScales;
     }
+    // number of scales in a row that ended without a point being added to this ridgeline
     public int getRunningGapNum(){
         return curRunningGap_;
     }
+    // Called once all the maxima of a scale have been tried on this ridgeline.
+    public void endScale(int scaleIndex){
+        if (scaleIndecies_[length_-1]==scaleIndex){
+            curRunningGap_ = 0;
+        }
+        else{
+            curRunningGap_++;
+        }
+    }
     public int getRidgeLength(){
-        return scales_.size();
+        return length_;
+    }
+    // i-th point of the ridgeline, in the order they were added (largest scale first)
+    public int getScaleIndex(int i){
+        return scaleIndecies_[i];
+    }
+    public double getScale(int i){
+        return scales_[i];
+    }
+    public int getIndex(int i){
+        return indecies_[i];
+    }
+    public double getCorValue(int i){
+        return corValues_[i];
+    }
+    // index of the point added last, this is what new points are compared to
+    public int getLastIndex(){
+        return indecies_[length_-1];
+    }
+    public int getLastScaleIndex(){
+        return scaleIndecies_[length_-1];
     }
     public double getRidgeStartScale(){
-        return scales_.get(0);
+        return scales_[0];
     }
     public double getRidgeEndScale(){
-        int l = scales_.size();
-        return scales_.get(l-1);
+        return scales_[length_-1];
     }
     public int getBestIndex(){
-        int curBestInd=-1;
-        double maxCorVal=Double.NEGATIVE_INFINITY;
-        for (int i=0; i< indecies_.size();i++){
-            double curCor = corValues_.get(i);
-            if (curCor>maxCorVal){
-                maxCorVal = curCor;
-                curBestInd = indecies_.get(i);
-            }
-        }
-        return curBestInd;
+        return indecies_[bestPosition_];
+    }
+    public int getBestScaleIndex(){
+        return scaleIndecies_[bestPosition_];
     }
     public double getBestScale(){
-        double curBestScale=-1.0;
-        double maxCorVal=Double.NEGATIVE_INFINITY;
-        for (int i=0; i< scales_.size();i++){
-            double curCor = corValues_.get(i);
-            if (curCor>maxCorVal){
-                maxCorVal = curCor;
-                curBestScale = scales_.get(i);
-            }
-        }
-        return curBestScale;
+        return scales_[bestPosition_];
     }
     public double getMaxCor(){
-        double maxCorVal=0.0;
-        for (int i=0; i< corValues_.size();i++){
-            double curCor = corValues_.get(i);
-            if (curCor>maxCorVal){
-                maxCorVal = curCor;
+        double maxCorVal = corValues_[bestPosition_];
+        if (maxCorVal>0.0){
+            return maxCorVal;
+        }
+        return 0.0;
+    }
+    
+    private void addPoint(int scaleIndex, double scale, int index, double corValue){
+        if (length_==scales_.length){
+            scaleIndecies_ = java.util.Arrays.copyOf(scaleIndecies_, 2*length_);
+            scales_ = java.util.Arrays.copyOf(scales_, 2*length_);
+            indecies_ = java.util.Arrays.copyOf(indecies_, 2*length_);
+            corValues_ = java.util.Arrays.copyOf(corValues_, 2*length_);
+        }
+        scaleIndecies_[length_] = scaleIndex;
+        scales_[length_] = scale;
+        indecies_[length_] = index;
+        corValues_[length_] = corValue;
+        if (corValue>corValues_[bestPosition_]){
+            bestPosition_ = length_;
+        }
+        length_++;
+    }
+    
+    private void replaceLastPoint(int index, double corValue){
+        int last = length_-1;
+        indecies_[last] = index;
+        corValues_[last] = corValue;
+        if (bestPosition_==last){
+            // the best point may have gotten smaller, look again (first largest wins)
+            bestPosition_ = 0;
+            for (int i=1; i<length_; i++){
+                if (corValues_[i]>corValues_[bestPosition_]){
+                    bestPosition_ = i;
+                }
             }
         }
-        return maxCorVal;
+        else if (corValue>corValues_[bestPosition_]){
+            bestPosition_ = last;
+        }
     }
-    public boolean tryAddPoint(double scale, int index, double corValue)
+    
+    public boolean tryAddPoint(int scaleIndex, double scale, int index, double corValue)
     {
         // see if where this index is in relation to the last added
-        int lastAddedInd = indecies_.get(indecies_.size()-1);
+        int lastAddedInd = indecies_[length_-1];
         int indexDiff = Math.abs(lastAddedInd - index);
 
         int indexTol = (int) Math.round(findIndexTolFromScale(scale));
@@ -103,24 +163,17 @@ public class Ridgeline {
 
 
         // Need to see if something has already been added for this scale
-        boolean haveThisScaleAlready = false;
-        double epsilon = 0.000000001;
-        if ((scales_.get(scales_.size()-1)<=(scale+epsilon))&&(scales_.get(scales_.size()-1)>=(scale-epsilon))){
-            haveThisScaleAlready = true;
-        }
+        boolean haveThisScaleAlready = scaleIndecies_[length_-1]==scaleIndex;
         if (!haveThisScaleAlready ){
 
             // times 2 for pluss minus tollerance
             if (indexDiff<(2*indexTol)){
 
-                scales_.add(scale);
-                indecies_.add(index);
-                corValues_.add(corValue);
+                addPoint(scaleIndex, scale, index, corValue);
                 curRunningGap_ = 0;
                 return true;
             }
             else{
-                curRunningGap_++;
                 return false;
             }
 
@@ -131,7 +184,7 @@ public class Ridgeline {
             // 2) is it larger or smaller correlation value
             // For now lets just take the closest point unless this the first scale still.
             // If it is the first scale then lets pick the largest value.
-            if (scales_.size() > 1){
+            if (length_ > 1){
                 //Lets try taking the largest one instead
                 //int prevCor = corValues_[corValues_.size()-1];
                 //int curCor = corValue;
@@ -144,22 +197,20 @@ public class Ridgeline {
                 //}
 
 
-                int prevIndexDiff = Math.abs(indecies_.get(indecies_.size()-2)-indecies_.get(indecies_.size()-1));
-                int curIndexDiff = Math.abs(indecies_.get(indecies_.size()-2)-index);
+                int prevIndexDiff = Math.abs(indecies_[length_-2]-indecies_[length_-1]);
+                int curIndexDiff = Math.abs(indecies_[length_-2]-index);
 
                 if (prevIndexDiff>curIndexDiff ){
-                    indecies_.set(indecies_.size()-1,index);
-                    corValues_.set(indecies_.size()-1,corValue);
+                    replaceLastPoint(index, corValue);
                     return true;
                 }
             }
             else {
                 // only compare magnitued if they are close points
                 if (indexDiff<(2*indexTol)){
-                    double prevCor = corValues_.get(0);
+                    double prevCor = corValues_[0];
                     if (corValue>prevCor){
-                        indecies_.set(indecies_.size()-1,index);
-                        corValues_.set(indecies_.size()-1,corValue);
+                        replaceLastPoint(index, corValue);
                         return true;
                     }
                 }
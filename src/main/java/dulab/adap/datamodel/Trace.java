@@ -0,0 +1,53 @@
+/*
+ * Copyright (C) 2016 Du-Lab Team <dulab.binf@gmail.com>
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+package dulab.adap.datamodel;
+
+/**
+ * One extracted ion chromatogram of a sample: the intensities of an m/z value
+ * on the retention time axis that all the traces of the sample share. The
+ * intensities are not copied and must not be changed while the trace is in use.
+ *
+ * @author owen myers
+ */
+public class Trace {
+    private final double mz;
+    private final double[] intensity;
+
+    public Trace(final double mz, final double[] intensity){
+        if (intensity==null){
+            throw new IllegalArgumentException("A trace needs intensities");
+        }
+        this.mz = mz;
+        this.intensity = intensity;
+    }
+
+    public double getMz(){
+        return mz;
+    }
+    public double[] getIntensity(){
+        return intensity;
+    }
+    public int getNumPoints(){
+        return intensity.length;
+    }
+
+    @Override
+    public String toString(){
+        return "Trace[mz="+mz+", points="+intensity.length+"]";
+    }
+}
@@ -0,0 +1,40 @@
+/*
+ * Copyright (C) 2016 Du-Lab Team <dulab.binf@gmail.com>
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+package dulab.adap.workflow;
+
+/**
+ * One check a candidate peak has to pass to become a peak. Filters only look
+ * at the candidate and the parameters and have no side effects, so a
+ * CandidateFilterChain can run them in any order.
+ *
+ * @author owen myers
+ */
+public interface CandidateFilter {
+    
+    String getName();
+    
+    // Relative cost of one accept call. The chain runs cheap filters first so that the expensive
+    // ones see fewer candidates.
+    double getCost();
+    
+    // True for filters that look at the signal to noise ratio. The ratio is only computed for
+    // candidates that pass the other filters, so these always run after them.
+    boolean needsSignalToNoise();
+    
+    boolean accept(DeconvolutionCandidates candidates, int i, DeconvolutionParameters parameters);
+}
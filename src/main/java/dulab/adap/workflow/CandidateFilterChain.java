@@ -0,0 +1,134 @@
+/*
+ * Copyright (C) 2016 Du-Lab Team <dulab.binf@gmail.com>
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+package dulab.adap.workflow;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The filters a candidate peak has to pass, run cheapest first and stopping at
+ * the first one that rejects it. Filters that need the signal to noise ratio
+ * run after all the others, ordered by cost among themselves. Equal costs keep
+ * the order the filters were given in.
+ * 
+ * For every filter the chain counts the candidates it saw and the ones it
+ * rejected, to see where candidates are lost and whether the order is right on
+ * real data. The counters are thread safe so one chain can be shared by all the
+ * EICs of a run.
+ *
+ * @author owen myers
+ */
+public class CandidateFilterChain {
+    private final CandidateFilter[] filters;
+    // filters[numWithoutSignalToNoise] and up need the signal to noise ratio
+    private final int numWithoutSignalToNoise;
+    private final AtomicLong[] seen;
+    private final AtomicLong[] rejected;
+    
+    // the checks of DeconvoluteSignal
+    public CandidateFilterChain(){
+        this(standardFilters());
+    }
+    
+    public CandidateFilterChain(List<? extends CandidateFilter> filtersIn){
+        List<CandidateFilter> sorted = new ArrayList<CandidateFilter>(filtersIn);
+        // stable
+        Collections.sort(sorted, new Comparator<CandidateFilter>() {
+            @Override
+            public int compare(CandidateFilter a, CandidateFilter b){
+                if (a.needsSignalToNoise()!=b.needsSignalToNoise()){
+                    return a.needsSignalToNoise() ? 1 : -1;
+                }
+                return Double.compare(a.getCost(), b.getCost());
+            }
+        });
+        filters = sorted.toArray(new CandidateFilter[sorted.size()]);
+        int count = 0;
+        while (count<filters.length && !filters[count].needsSignalToNoise()){
+            count += 1;
+        }
+        numWithoutSignalToNoise = count;
+        seen = new AtomicLong[filters.length];
+        rejected = new AtomicLong[filters.length];
+        for (int f=0; f<filters.length; f++){
+            seen[f] = new AtomicLong();
+            rejected[f] = new AtomicLong();
+        }
+    }
+    
+    // A new list with all of StandardCandidateFilter, to add to or take from
+    public static List<CandidateFilter> standardFilters(){
+        return new ArrayList<CandidateFilter>(Arrays.asList(StandardCandidateFilter.values()));
+    }
+    
+    // Runs the filters in order and counts
+    public boolean accept(DeconvolutionCandidates candidates, int i, DeconvolutionParameters parameters){
+        for (int f=0; f<filters.length; f++){
+            seen[f].incrementAndGet();
+            if (!filters[f].accept(candidates, i, parameters)){
+                rejected[f].incrementAndGet();
+                return false;
+            }
+        }
+        return true;
+    }
+    
+    // Whether the candidate gets past the filters that do not need the signal to noise ratio, i.e.
+    // whether the ratio has to be computed. Not counted.
+    boolean acceptWithoutSignalToNoise(DeconvolutionCandidates candidates, int i, DeconvolutionParameters parameters){
+        for (int f=0; f<numWithoutSignalToNoise; f++){
+            if (!filters[f].accept(candidates, i, parameters)){
+                return false;
+            }
+        }
+        return true;
+    }
+    
+    // The filters in the order they run
+    public List<CandidateFilter> getFilters(){
+        return Collections.unmodifiableList(Arrays.asList(filters));
+    }
+    public long getSeen(int filterIndex){
+        return seen[filterIndex].get();
+    }
+    public long getRejected(int filterIndex){
+        return rejected[filterIndex].get();
+    }
+    public void resetCounters(){
+        for (int f=0; f<filters.length; f++){
+            seen[f].set(0);
+            rejected[f].set(0);
+        }
+    }
+    
+    // one line per filter: name, cost, seen, rejected
+    @Override
+    public String toString(){
+        StringBuilder report = new StringBuilder();
+        for (int f=0; f<filters.length; f++){
+            report.append(filters[f].getName()).append(" cost=").append(filters[f].getCost())
+                    .append(" seen=").append(seen[f].get())
+                    .append(" rejected=").append(rejected[f].get()).append('\n');
+        }
+        return report.toString();
+    }
+}
@@ -18,17 +18,28 @@
 package dulab.adap.workflow;
 
 
+import dulab.adap.datamodel.PeakCandidates;
 import dulab.adap.datamodel.PeakInfo;
+import dulab.adap.datamodel.Trace;
 import dulab.adap.common.algorithms.FeatureTools;
 import com.google.common.collect.Range;
 import dulab.adap.common.algorithms.ContinuousWaveletTransform;
+import dulab.adap.common.algorithms.ContinuousWaveletTransformPlan;
+import dulab.adap.common.algorithms.ScaleGrid;
+import dulab.adap.common.algorithms.SignalIndex;
 import static dulab.adap.common.algorithms.SignalToNoise.filterBySNStaticWindowSweep;
 import static dulab.adap.common.algorithms.SignalToNoise.filterBySNWindowInOutSweep;
 import static dulab.adap.common.algorithms.SignalToNoise.findSNUsingWaveletCoefficents;
 import static dulab.adap.workflow.deconvolutioncpptools.UseMsconvertCWT.tryCallingCppFindPeaks;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
 
 /**
  *
@@ -36,6 +47,8 @@ import java.util.Map;
  */
 public class Deconvolution {
     
+    // informationSN stays a raw Map here for the existing callers and is passed on as Map<String,Object>
+    @SuppressWarnings("unchecked")
     public static List<PeakInfo> DeconvoluteSignal(
             final double[] retentionTimes, final double[] intensity, final double mz,
             final double snrThreshold,
@@ -47,170 +60,276 @@ public class Deconvolution {
             final Map informationSN)
             //final String SNCode,// determines which signal to noise estimator is used
             //final double SNWindowMultiplier) // determions how many time peak width out for window in SN calc.
+    {
+        ContinuousWaveletTransform tryNewCWT = new ContinuousWaveletTransform(
+                makeCWTPlan(lowerPeakWidthForCWTScales, upperPeakWidthForCWTScales));
+        
+        return DeconvoluteSignal(tryNewCWT, retentionTimes, intensity, mz,
+                snrThreshold, minimumFeatHeight, peakWidth, coefAreaRatioTolerance, informationSN);
+    }
+    
+    // Same as above with the scales given by a ScaleGrid instead of 10 linear scales between the
+    // lower and upper peak widths. A logarithmic grid covers the same widths with fewer scales.
+    public static List<PeakInfo> DeconvoluteSignal(
+            final double[] retentionTimes, final double[] intensity, final double mz,
+            final double snrThreshold,
+            final double minimumFeatHeight,
+            final Range<Double> peakWidth,
+            final double coefAreaRatioTolerance,
+            final ScaleGrid scaleGrid, // in units of scans
+            final Map<String,Object> informationSN)
+    {
+        ContinuousWaveletTransform tryNewCWT = new ContinuousWaveletTransform(scaleGrid);
+        
+        return DeconvoluteSignal(tryNewCWT, retentionTimes, intensity, mz,
+                snrThreshold, minimumFeatHeight, peakWidth, coefAreaRatioTolerance, informationSN);
+    }
+    
+    // The scales used by DeconvoluteSignal. Make this once and give every worker thread its own
+    // ContinuousWaveletTransform(plan) to run all the EICs of a sample without redoing the setup.
+    public static ContinuousWaveletTransformPlan makeCWTPlan(
+            final int lowerPeakWidthForCWTScales, // in units of scans
+            final int upperPeakWidthForCWTScales) // in units of scans
     {
         // For now lets always have an increment that results in 10 different scales
         double scaleIncrement = ((double) upperPeakWidthForCWTScales - (double) lowerPeakWidthForCWTScales)/9.0;
         // over 9 and not 10 because we want to include the largest scale and the lowerscale 
-        // -> this is done in the construction of the CWT object
+        // -> this is done in the construction of the CWT plan
+        
+        return new ContinuousWaveletTransformPlan((double) lowerPeakWidthForCWTScales,
+                                                  (double) upperPeakWidthForCWTScales,
+                                                  scaleIncrement);
+    }
+    
+    // Same as above with the CWT workspace (and so the scales) supplied by the caller. The workspace
+    // is reused so it must not be shared between threads.
+    public static List<PeakInfo> DeconvoluteSignal(
+            final ContinuousWaveletTransform tryNewCWT,
+            final double[] retentionTimes, final double[] intensity, final double mz,
+            final double snrThreshold,
+            final double minimumFeatHeight,
+            final Range<Double> peakWidth,
+            final double coefAreaRatioTolerance,
+            final Map<String,Object> informationSN)
+    {
+        DeconvolutionParameters parameters = new DeconvolutionParameters(snrThreshold,
+                minimumFeatHeight, peakWidth, coefAreaRatioTolerance);
+        return DeconvoluteSignal(tryNewCWT, retentionTimes, intensity, mz, parameters, informationSN,
+                new CandidateFilterChain());
+    }
+    
+    // Same as above with the checks done by filterChain, which also counts where the candidates are
+    // rejected. The chain can be shared between threads.
+    public static List<PeakInfo> DeconvoluteSignal(
+            final ContinuousWaveletTransform tryNewCWT,
+            final double[] retentionTimes, final double[] intensity, final double mz,
+            final DeconvolutionParameters parameters,
+            final Map<String,Object> informationSN,
+            final CandidateFilterChain filterChain)
+    {
+        DeconvolutionCandidates candidates = findCandidates(tryNewCWT, retentionTimes, intensity, mz,
+                informationSN, Collections.singletonList(parameters), filterChain);
+        return candidates.filter(parameters);
+    }
+    
+    // DeconvoluteSignal for every parameter set with the wavelet transform, the ridgelines and the
+    // candidate peaks done only once. result.get(i) are the peaks for parameterSets.get(i).
+    public static List<List<PeakInfo>> DeconvoluteSignalSweep(
+            final ContinuousWaveletTransform tryNewCWT,
+            final double[] retentionTimes, final double[] intensity, final double mz,
+            final List<DeconvolutionParameters> parameterSets,
+            final Map<String,Object> informationSN)
+    {
+        DeconvolutionCandidates candidates = findCandidates(tryNewCWT, retentionTimes, intensity, mz,
+                informationSN, parameterSets);
+        List<List<PeakInfo>> results = new ArrayList<List<PeakInfo>>(parameterSets.size());
+        for (DeconvolutionParameters parameters : parameterSets){
+            results.add(candidates.filter(parameters));
+        }
+        return results;
+    }
+    
+    // DeconvoluteSignal for all the traces of a sample, which share retentionTimes. Every trace is a
+    // task on executor (on the calling thread when executor is null) and every running task has its
+    // own ContinuousWaveletTransform workspace for plan. The peaks come back ordered by the m/z of their
+    // trace, traces with the same m/z in the order given, and within a trace in the order
+    // DeconvoluteSignal finds them. So the result does not depend on the executor.
+    public static List<PeakInfo> DeconvoluteSignals(
+            final ContinuousWaveletTransformPlan plan,
+            final double[] retentionTimes,
+            final Collection<Trace> traces,
+            final DeconvolutionParameters parameters,
+            final Map<String,Object> informationSN,
+            final Executor executor)
+    {
+        return DeconvoluteSignals(plan, retentionTimes, traces, parameters, informationSN, executor,
+                new CandidateFilterChain());
+    }
+    
+    // Same as above with the checks done by filterChain, which then has the counts of the whole sample
+    public static List<PeakInfo> DeconvoluteSignals(
+            final ContinuousWaveletTransformPlan plan,
+            final double[] retentionTimes,
+            final Collection<Trace> traces,
+            final DeconvolutionParameters parameters,
+            final Map<String,Object> informationSN,
+            final Executor executor,
+            final CandidateFilterChain filterChain)
+    {
+        final List<Trace> sortedTraces = sortByMz(traces, retentionTimes.length);
         
-        ContinuousWaveletTransform tryNewCWT = new ContinuousWaveletTransform((double) lowerPeakWidthForCWTScales,
-                                                                                (double) upperPeakWidthForCWTScales,
-                                                                                scaleIncrement);
+        final List<List<PeakInfo>> peaksPerTrace = new ArrayList<List<PeakInfo>>(
+                Collections.<List<PeakInfo>>nCopies(sortedTraces.size(), null));
+        // Workspaces are borrowed for one trace and given back, so there are never more than there
+        // are traces running at the same time and none are left behind in the executor's threads.
+        final ConcurrentLinkedQueue<ContinuousWaveletTransform> workspaces =
+                new ConcurrentLinkedQueue<ContinuousWaveletTransform>();
+        
+        ArrayList<CompletableFuture<Void>> tasks = new ArrayList<CompletableFuture<Void>>(sortedTraces.size());
+        for (int i=0; i<sortedTraces.size(); i++){
+            final int traceIndex = i;
+            Runnable task = new Runnable() {
+                @Override
+                public void run(){
+                    Trace trace = sortedTraces.get(traceIndex);
+                    ContinuousWaveletTransform workspace = workspaces.poll();
+                    if (workspace==null){
+                        workspace = new ContinuousWaveletTransform(plan);
+                    }
+                    try{
+                        List<PeakInfo> peaks = DeconvoluteSignal(workspace, retentionTimes,
+                                trace.getIntensity(), trace.getMz(), parameters, informationSN, filterChain);
+                        peaksPerTrace.set(traceIndex, peaks);
+                    }
+                    finally{
+                        workspaces.offer(workspace);
+                    }
+                }
+            };
+            if (executor==null){
+                task.run();
+            }
+            else{
+                tasks.add(CompletableFuture.runAsync(task, executor));
+            }
+        }
+        CompletableFuture.allOf(tasks.toArray(new CompletableFuture<?>[tasks.size()])).join();
+        
+        List<PeakInfo> allPeaks = new ArrayList<PeakInfo>();
+        for (List<PeakInfo> peaks : peaksPerTrace){
+            allPeaks.addAll(peaks);
+        }
+        return allPeaks;
+    }
+    
+    // The traces ordered by m/z, equal m/z in the given order. Checks that every trace has numPoints
+    // intensities.
+    static List<Trace> sortByMz(final Collection<Trace> traces, final int numPoints){
+        List<Trace> sortedTraces = new ArrayList<Trace>(traces);
+        // stable, so equal m/z keep their order
+        Collections.sort(sortedTraces, new Comparator<Trace>() {
+            @Override
+            public int compare(Trace a, Trace b){
+                return Double.compare(a.getMz(), b.getMz());
+            }
+        });
+        for (Trace trace : sortedTraces){
+            if (trace.getNumPoints()!=numPoints){
+                throw new IllegalArgumentException("Trace at m/z "+trace.getMz()
+                        +" does not have one intensity per retention time");
+            }
+        }
+        return sortedTraces;
+    }
+    
+    // The part of DeconvoluteSignal that does not depend on the thresholds: the ridgelines, the
+    // bounds of the candidate peaks and everything the filters look at. The signal to noise ratio
+    // (the expensive part) is only found for candidates that pass all the other checks for at least
+    // one of parameterSets, or for all of them when parameterSets is null. The returned candidates
+    // can only be filtered with those parameter sets.
+    public static DeconvolutionCandidates findCandidates(
+            final ContinuousWaveletTransform tryNewCWT,
+            final double[] retentionTimes, final double[] intensity, final double mz,
+            final Map<String,Object> informationSN,
+            final List<DeconvolutionParameters> parameterSets)
+    {
+        return findCandidates(tryNewCWT, retentionTimes, intensity, mz, informationSN, parameterSets,
+                new CandidateFilterChain());
+    }
+    
+    // Same as above with the checks of filterChain. "All the other checks" are the filters of the
+    // chain that do not need the signal to noise ratio, and the candidates are filtered by the chain.
+    public static DeconvolutionCandidates findCandidates(
+            final ContinuousWaveletTransform tryNewCWT,
+            final double[] retentionTimes, final double[] intensity, final double mz,
+            final Map<String,Object> informationSN,
+            final List<DeconvolutionParameters> parameterSets,
+            final CandidateFilterChain filterChain)
+    {
         tryNewCWT.setSignal(intensity);
         tryNewCWT.setX(retentionTimes);
         
         tryNewCWT.buildRidgelines();
         tryNewCWT.filterRidgelines();
-        double[][] newPeaks = tryNewCWT.findBoundries();
-        
-        // For debugging
-        //tryNewCWT.signalWaveletInnerProductOnePoint(1,5);
-        //tryNewCWT.getCoefficientsForAllScales();
-        //tryNewCWT.findMaximaForThisScale(4);
-        //tryNewCWT.buildRidgelines();
-  
-        
-     
+        PeakCandidates newPeaks = tryNewCWT.findPeakCandidates();
+        // all the checks below over the intensities of a candidate are range queries on this
+        SignalIndex signalIndex = tryNewCWT.getSignalIndex();
         
         //These two lines are the old way
         //double[][] oldPeaks;
         //oldPeaks =  tryCallingCppFindPeaks(intensity,retentionTimes,snrThreshold,peakWidth.lowerEndpoint());
         
-        
-
-        // Check and make sure the given features abolute height is large enough
-        List <Double> doneLBound = new ArrayList<Double>();
-        List <Double> doneRBound = new ArrayList<Double>();
-        
-        List <Double> bestCoefficient = new ArrayList<Double>();
+        DeconvolutionCandidates candidates = new DeconvolutionCandidates(mz, filterChain);
         
         ////////////////////////////// Parse data from C++ ////////////////////////////////////
-        for (int i = 0; i<intensity.length; i++){
-            int curLBound = (int) newPeaks[0][i];
-            int curRBound = (int) newPeaks[1][i];
-            double curCoef = newPeaks[2][i];
-            if ((curLBound==0)&&(curRBound==0)){
-                doneLBound.add(new Double(0));
-                doneRBound.add(new Double(0));
-                bestCoefficient.add(new Double(0));
-            }
-            else{
-                double highestPoint = 0;
-                for(int alpha = curLBound; alpha<(curRBound+1); alpha++){
-                    if (intensity[alpha]>=highestPoint){
-                        highestPoint = intensity[alpha];
-                    }
-                }
-                /////////////////// minimum feature height check //////////////////////////////////
-                if(highestPoint>= minimumFeatHeight){
-                    doneLBound.add(new Double(curLBound));
-                    doneRBound.add(new Double(curRBound));
-                    bestCoefficient.add(new Double(curCoef));
-                }
+        for (int i = 0; i<newPeaks.size(); i++){
+            int peakLeft = newPeaks.getLeftBound(i);
+            int peakRight = newPeaks.getRightBound(i);
+            double curBestCoef = newPeaks.getBestCoefficient(i);
+            if ((peakLeft==0)&&(peakRight==0)){
+                continue;
             }
             
-        }
-        
-        
-        
-        final double[][] boundsMatrix = new double[2][doneLBound.size()];
-        for (int i = 0; i<doneLBound.size(); i++){
-            boundsMatrix[0][i] = doneLBound.get(i);
-            boundsMatrix[1][i] = doneRBound.get(i);   
-        }
-       
-        List<PeakInfo> resolvedPeaks = new ArrayList<PeakInfo>();
-        
-        if ((boundsMatrix == null)||
-                ((((int)boundsMatrix[0][0]==0)&&((int)boundsMatrix[1][0]==0))&&(boundsMatrix[0].length==1))){
-            return resolvedPeaks;
-
-        } else {
-
-          
-
+            /////////////////// height for the minimum feature height check //////////////////////////////
+            double highestPoint = java.lang.Math.max(0.0, signalIndex.max(peakLeft, peakRight));
             
+            ////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////
+            /////////////////////////// Fix Boundries /////////////////////////////////////////////////////////////////////////////
+            ////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////
+            peakLeft = FeatureTools.fixLeftBoundry(intensity, peakLeft);
+            peakRight = FeatureTools.fixRightBoundry(intensity, peakRight);
             
-            for (int i = 0; i < boundsMatrix[0].length;i++) {
-
-                // Get peak start and end.
-                //final int peakLeft = findRTIndex(retentionTimes, boundsMatrix[0][i]);
-                //final int peakRight = findRTIndex(retentionTimes, boundsMatrix[1][i]);
-                int peakLeft = (int) boundsMatrix[0][i];
-                int peakRight = (int) boundsMatrix[1][i];
-                if ((peakLeft==0)&&(peakRight==0)){
-                    continue;
-                }
-                ////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////
-                /////////////////////////// Fix Boundries /////////////////////////////////////////////////////////////////////////////
-                ////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////
-
-                    peakLeft = FeatureTools.fixLeftBoundry(intensity, peakLeft);
-
-
-                    peakRight = FeatureTools.fixRightBoundry(intensity, peakRight);
-
-                
-                ////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////
-                ///////////////////////////Peak Width /////////////////////////////////////////////////////////////////////////////
-                ////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////
-                // The old way could detect the same peak more than once if the wavlet scales were too large.
-                // If the left bounds were the same and there was a null point before the right bounds it would
-                //make the same peak twice.
-                // To avoid the above see if the peak duration range is met before going into
-                // the loop
-                double retentionTimeRight = retentionTimes[peakRight];
-                double retentionTimeLeft = retentionTimes[peakLeft];
-                if(! peakWidth.contains(retentionTimeRight- retentionTimeLeft))
-                {
-                    continue;
-                }
-                
-                ////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////
-                ///////////////////////////Cropped Peak width/////////////////////////////////////////////////////////////////////////////
-                ////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////
-                // It is possible for the bounds to contain null or 0 intensity points. 
-                // For excample if for some reason the
-                // CWT finds a peak with only a single point in it but it thinks the bounds are a couple
-                // of points to the left and right then it would pass the above if statement. To make 
-                // sure we get rid of thes points we need to do one more check wich is below.
-                int croppedPeakLeft=-1;
-                int croppedPeakRight=-1;
-                
-                boolean allZero=true;
-                for (int alpha=peakLeft; alpha<peakRight; alpha++){
-                    double curInt = intensity[alpha];
-                    if (curInt!=0.0){
-                        
-                        allZero = false;
-                        break;
-                    }
-                }
-                if (allZero){
-                    continue;
-                }
-                for (int alpha=peakLeft; alpha<peakRight; alpha++){
-                    double curInt = intensity[alpha];
-                    if (curInt!=0.0){
-                        
-                        croppedPeakLeft = alpha;
-                        break;
-                    }
-                }
-                for (int alpha=peakRight; alpha>peakLeft; alpha--){
-                    double curInt = intensity[alpha];
-                    if (curInt!=0.0){
-                        croppedPeakRight = alpha;
-                        break;
-                    }
+            ////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////
+            ///////////////////////////Peak Width /////////////////////////////////////////////////////////////////////////////
+            ////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////
+            // The old way could detect the same peak more than once if the wavlet scales were too large.
+            // If the left bounds were the same and there was a null point before the right bounds it would
+            //make the same peak twice.
+            // To avoid the above the peak duration range has to be met before going into
+            // the loop
+            double retentionTimeRight = retentionTimes[peakRight];
+            double retentionTimeLeft = retentionTimes[peakLeft];
+            double width = retentionTimeRight- retentionTimeLeft;
+            
+            ////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////
+            ///////////////////////////Cropped Peak width/////////////////////////////////////////////////////////////////////////////
+            ////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////
+            // It is possible for the bounds to contain null or 0 intensity points. 
+            // For excample if for some reason the
+            // CWT finds a peak with only a single point in it but it thinks the bounds are a couple
+            // of points to the left and right then it would pass the above width check. To make 
+            // sure we get rid of thes points we need to do one more check wich is below.
+            // (peakRight itself is not looked at here)
+            int firstNonzero = signalIndex.nextNonzero(peakLeft);
+            boolean allZero = firstNonzero>=peakRight;
+            double croppedWidth = Double.NaN;
+            if (!allZero){
+                int croppedPeakLeft = firstNonzero;
+                // the last nonzero point after peakLeft
+                int croppedPeakRight = signalIndex.previousNonzero(peakRight);
+                if (croppedPeakRight<=peakLeft){
+                    croppedPeakRight = -1;
                 }
-                // Everything could be zero
-//                if (croppedPeakRight==-1){
-//                    croppedPeakRight = peakRight;
-//                }
-//                if (croppedPeakLeft==-1){
-//                    croppedPeakLeft = peakLeft;
-//                }
                 
                 // the most left and right points could/should be zero so by adding/subtracting from alpha we can make sure that  remains the case
                 // Otherwise the peak width is not acuretly being represented.
@@ -220,149 +339,93 @@ public class Deconvolution {
                 if (croppedPeakRight!=peakRight){
                     croppedPeakRight+=1;
                 }
-                if(croppedPeakLeft==-2){
-                    System.out.println("bug");
-                }
-                
-                
                 
                 double croppedRetentionTimeRight = retentionTimes[croppedPeakRight];
                 double croppedRetentionTimeLeft = retentionTimes[croppedPeakLeft];
-                if(! peakWidth.contains(croppedRetentionTimeRight- croppedRetentionTimeLeft))
-                {
-                    continue;
-                }
-                
-                ////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////
-                ///////////////////////////Number of Zero Points /////////////////////////////////////////////////////////////////////////////
-                ////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////
-                
-                // ALSO lest make sure the total number of non-zero points is greater than the number of 0.0 points
-                int numZeros = 0;
-                int numNotZero = 0;
-                double epsilon = 0.0001;
-                for (int alpha=peakLeft; alpha<=peakRight;alpha++){
-                    if (intensity[alpha]< epsilon){
-                        numZeros +=1;
-                    }
-                    else {
-                        numNotZero += 1;
-                    }
-                }
-                if (numZeros>=numNotZero){
-                    continue;
-                }
-                
-                ////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////
-                ///////////////////////////Signal to Noise /////////////////////////////////////////////////////////////////////////////
-                ////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////
-                double curBestCoef = bestCoefficient.get(i);
-                // Now find and check signal to noise ratio.
-                String SNCode = (String) informationSN.get("code"); // determines which signal to noise estimator is used
-                double curSN = 0.0;
-                if (SNCode.equals("Intensity Window Estimator")){
-                    //double curSN = filterBySNRandWindowSelect(intensity,peakLeft,peakRight);
-                    double curSN1 = filterBySNWindowInOutSweep(intensity,peakLeft,peakRight);
-                    double curSN2 = filterBySNStaticWindowSweep(intensity,peakLeft,peakRight);
-                    curSN = java.lang.Math.max(curSN1,curSN2);
-                    
-                }
-                else if (SNCode.equals("Wavelet Coefficient Estimator")){
-                    // determions how many time peak width out for window in SN calc.
-                    double SNWindowMultiplier = (double) informationSN.get("multiplier");
-                    boolean absWaveCoeffs = (boolean) informationSN.get("absolutewavecoeffs");
-                    curSN = findSNUsingWaveletCoefficents(tryNewCWT.returnAllCoefficients(),
-                                                        curBestCoef, peakLeft, peakRight,SNWindowMultiplier,
-                                                        absWaveCoeffs);
-                }
-                if (curSN<snrThreshold){
-                    continue;
-                }
-                if (curSN>1E12){
-                    curSN=1E12;
-                }
-        
-                ////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////
-                ///////////////////////////  Sharpness     /////////////////////////////////////////////////////////////////////////////
-                ////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////
-                
-                // find and check the "sharpness" right now we get the angle between the mean slope found
-                // from averaging the slope betweein peak point and points on right and left
-                //double avgSlopesAngle = sharpnessAngleAvgSlopes(retentionTimes, intensity, peakLeft, peakRight);
-//                double avgAnglesAngle = sharpnessAngleAvgAngles(retentionTimes, intensity, peakLeft, peakRight);
-//                if (avgAnglesAngle>(sharpnessAngleThresh)) {
-//                    continue;
-//                }
-                 
-                //double yangSharp = FeatureTools.sharpnessYang(retentionTimes,intensity,peakLeft,peakRight);
-                
-                ////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////
-                ///////////////////////////Mean of Boundry Mean of Signal //////////////////////////////////////////////////////////////
-                ////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////
-                
-                // compare the ratio of the mean boundry height to the mean of the signal
-                double meanOfSignal = FeatureTools.findMeanOfSignal(intensity,peakLeft,peakRight);
-                double meanBoundary = (intensity[peakLeft]+intensity[peakRight])/2.0;
-                double differenceSigBnd = meanOfSignal-meanBoundary;
-                
-                
-                if (differenceSigBnd/minimumFeatHeight < 0.2){
-                    continue;
-                }
-                
-                ////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////
-                ///////////////////////////Coefficient area/////////////////////////////////////////////////////////////////////////////
-                ////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////
-                
-//                double signalMin = findMinIntensityOfSignal(intensity, peakLeft,  peakRight);
-//                for (int alpha = peakLeft; alpha<=peakRight; alpha++){
-//                     intensity[alpha] = intensity[alpha]-signalMin;                       
-//                }
-                double curArea = FeatureTools.trapazoidAreaUnderCurve( intensity,retentionTimes, peakLeft,  peakRight);
-//                for (int alpha = peakLeft; alpha<=peakRight; alpha++){
-//                     intensity[alpha] = intensity[alpha]+signalMin;                       
-//                }
-                
-                double normedCoef = curBestCoef/curArea;
-                
-                if (normedCoef<coefAreaRatioTolerance){
-                    continue;
-                }
-                
-                ////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////
-                ///////////////////////////DONE WITH CHECKS/////////////////////////////////////////////////////////////////////////////
-                ////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////
-                
-                //Find some more info about the peak
-                double peakHeight =0.0;
-                int peakIndex = 0;
-                double peakRT=0.0;
-                for (int alpha=peakLeft;alpha<=peakRight; alpha++){
-                    if (intensity[alpha]>peakHeight){
-                        peakHeight = intensity[alpha];
-                        peakIndex = alpha;
-                        peakRT = retentionTimes[alpha];
+                croppedWidth = croppedRetentionTimeRight- croppedRetentionTimeLeft;
+            }
+            
+            ////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////
+            ///////////////////////////Number of Zero Points /////////////////////////////////////////////////////////////////////////////
+            ////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////
+            
+            // ALSO lest make sure the total number of non-zero points is greater than the number of 0.0 points
+            // (zero is below SignalIndex.NEAR_ZERO)
+            int numZeros = signalIndex.countNearZero(peakLeft, peakRight);
+            int numNotZero = peakRight-peakLeft+1-numZeros;
+            boolean notMostlyZero = !allZero && numZeros<numNotZero;
+            
+            ////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////
+            ///////////////////////////Mean of Boundry Mean of Signal //////////////////////////////////////////////////////////////
+            ////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////
+            
+            // compare the ratio of the mean boundry height to the mean of the signal
+            double meanOfSignal = signalIndex.mean(peakLeft, peakRight);
+            double meanBoundary = (intensity[peakLeft]+intensity[peakRight])/2.0;
+            double differenceSigBnd = meanOfSignal-meanBoundary;
+            
+            ////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////
+            ///////////////////////////Coefficient area/////////////////////////////////////////////////////////////////////////////
+            ////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////
+            double curArea = signalIndex.trapezoidArea(peakLeft, peakRight);
+            double normedCoef = curBestCoef/curArea;
+            
+            //Find some more info about the peak
+            // the first highest point, nothing when no point is above zero
+            double peakHeight =0.0;
+            int peakIndex = 0;
+            double peakRT=0.0;
+            int apex = signalIndex.indexOfMax(peakLeft, peakRight);
+            if (intensity[apex]>peakHeight){
+                peakHeight = intensity[apex];
+                peakIndex = apex;
+                peakRT = retentionTimes[apex];
+            }
+            
+            int candidate = candidates.add(highestPoint, peakLeft, peakRight, width, croppedWidth,
+                    notMostlyZero, differenceSigBnd, normedCoef,
+                    peakIndex, peakHeight, peakRT, retentionTimes[peakLeft], retentionTimes[peakRight]);
+            
+            ////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////
+            ///////////////////////////Signal to Noise /////////////////////////////////////////////////////////////////////////////
+            ////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////
+            boolean needSN = notMostlyZero && parameterSets==null;
+            if (parameterSets!=null){
+                for (DeconvolutionParameters parameters : parameterSets){
+                    if (candidates.passesAllButSignalToNoise(candidate, parameters)){
+                        needSN = true;
+                        break;
                     }
                 }
-                PeakInfo curPeakInfo = new PeakInfo();
-                
-                curPeakInfo.retTime = peakRT;
-                curPeakInfo.intensity = peakHeight;
-                curPeakInfo.retTimeStart = retentionTimes[peakLeft];
-                curPeakInfo.retTimeEnd = retentionTimes[peakRight];
-                curPeakInfo.peakIndex = peakIndex;
-                curPeakInfo.leftApexIndex = peakLeft;
-                curPeakInfo.rightApexIndex = peakRight;
-                curPeakInfo.mzValue = mz;
-                curPeakInfo.signalToNoiseRatio = curSN;
-                curPeakInfo.coeffOverArea = normedCoef;
+            }
+            if (!needSN){
+                continue;
+            }
+            // Now find the signal to noise ratio.
+            String SNCode = (String) informationSN.get("code"); // determines which signal to noise estimator is used
+            double curSN = 0.0;
+            if (SNCode.equals("Intensity Window Estimator")){
+                //double curSN = filterBySNRandWindowSelect(intensity,peakLeft,peakRight);
+                double curSN1 = filterBySNWindowInOutSweep(intensity,peakLeft,peakRight);
+                double curSN2 = filterBySNStaticWindowSweep(intensity,peakLeft,peakRight);
+                curSN = java.lang.Math.max(curSN1,curSN2);
                 
-                resolvedPeaks.add(curPeakInfo);
             }
+            else if (SNCode.equals("Wavelet Coefficient Estimator")){
+                // determions how many time peak width out for window in SN calc.
+                double SNWindowMultiplier = (double) informationSN.get("multiplier");
+                boolean absWaveCoeffs = (boolean) informationSN.get("absolutewavecoeffs");
+                curSN = findSNUsingWaveletCoefficents(tryNewCWT.returnCoefficientMatrix(),
+                                                    curBestCoef, peakLeft, peakRight,SNWindowMultiplier,
+                                                    absWaveCoeffs);
+            }
+            candidates.setSignalToNoise(candidate, curSN);
         }
-
-        return resolvedPeaks;
-
+        
+        // "sharpness" (angle between the mean slopes left and right of the apex) was tried here as
+        // well, see FeatureTools.sharpnessAngleAvgAngles and FeatureTools.sharpnessYang
+        
+        return candidates;
     }
     
     
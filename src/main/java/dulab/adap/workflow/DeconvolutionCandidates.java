@@ -0,0 +1,192 @@
+/*
+ * Copyright (C) 2016 Du-Lab Team <dulab.binf@gmail.com>
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+package dulab.adap.workflow;
+
+import dulab.adap.datamodel.PeakInfo;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Candidate peaks of one EIC with everything the filters of DeconvoluteSignal
+ * look at already measured (see Deconvolution.findCandidates). Checking a set
+ * of DeconvolutionParameters against them is cheap, so the wavelet transform
+ * and the ridgelines are only done once however many parameter sets are tried.
+ *
+ * @author owen myers
+ */
+public class DeconvolutionCandidates {
+    private final double mz;
+    // the filters for this EIC, the signal to noise ratio is computed for what gets past them
+    private final CandidateFilterChain filterChain;
+    private int size = 0;
+
+    // highest point between the bounds found from the ridgeline (before the bounds are fixed)
+    private double[] highestPoint = new double[16];
+    // fixed bounds and the retention time width between them
+    private int[] peakLeft = new int[16];
+    private int[] peakRight = new int[16];
+    private double[] width = new double[16];
+    // width after cropping zero intensity points at the ends, only set when notMostlyZero is true
+    private double[] croppedWidth = new double[16];
+    // at least one non zero point and more non zero than zero points between the bounds
+    private boolean[] notMostlyZero = new boolean[16];
+    private boolean[] hasSignalToNoise = new boolean[16];
+    private double[] signalToNoise = new double[16];
+    // mean of the signal minus the mean of the two bounds
+    private double[] differenceSigBnd = new double[16];
+    private double[] normedCoef = new double[16];
+    // apex
+    private int[] peakIndex = new int[16];
+    private double[] peakHeight = new double[16];
+    private double[] peakRT = new double[16];
+    private double[] retTimeStart = new double[16];
+    private double[] retTimeEnd = new double[16];
+
+    DeconvolutionCandidates(double mzIn, CandidateFilterChain filterChainIn){
+        mz = mzIn;
+        filterChain = filterChainIn;
+    }
+
+    public int size(){
+        return size;
+    }
+    public double getMz(){
+        return mz;
+    }
+
+    // Adds a candidate and returns its index. The signal to noise ratio is set separately because it
+    // is only worth computing for candidates that pass all the other checks.
+    int add(double highestPointIn, int peakLeftIn, int peakRightIn, double widthIn, double croppedWidthIn,
+            boolean notMostlyZeroIn, double differenceSigBndIn, double normedCoefIn,
+            int peakIndexIn, double peakHeightIn, double peakRTIn, double retTimeStartIn, double retTimeEndIn){
+        if (size==peakLeft.length){
+            int capacity = 2*size;
+            highestPoint = Arrays.copyOf(highestPoint, capacity);
+            peakLeft = Arrays.copyOf(peakLeft, capacity);
+            peakRight = Arrays.copyOf(peakRight, capacity);
+            width = Arrays.copyOf(width, capacity);
+            croppedWidth = Arrays.copyOf(croppedWidth, capacity);
+            notMostlyZero = Arrays.copyOf(notMostlyZero, capacity);
+            hasSignalToNoise = Arrays.copyOf(hasSignalToNoise, capacity);
+            signalToNoise = Arrays.copyOf(signalToNoise, capacity);
+            differenceSigBnd = Arrays.copyOf(differenceSigBnd, capacity);
+            normedCoef = Arrays.copyOf(normedCoef, capacity);
+            peakIndex = Arrays.copyOf(peakIndex, capacity);
+            peakHeight = Arrays.copyOf(peakHeight, capacity);
+            peakRT = Arrays.copyOf(peakRT, capacity);
+            retTimeStart = Arrays.copyOf(retTimeStart, capacity);
+            retTimeEnd = Arrays.copyOf(retTimeEnd, capacity);
+        }
+        highestPoint[size] = highestPointIn;
+        peakLeft[size] = peakLeftIn;
+        peakRight[size] = peakRightIn;
+        width[size] = widthIn;
+        croppedWidth[size] = croppedWidthIn;
+        notMostlyZero[size] = notMostlyZeroIn;
+        hasSignalToNoise[size] = false;
+        differenceSigBnd[size] = differenceSigBndIn;
+        normedCoef[size] = normedCoefIn;
+        peakIndex[size] = peakIndexIn;
+        peakHeight[size] = peakHeightIn;
+        peakRT[size] = peakRTIn;
+        retTimeStart[size] = retTimeStartIn;
+        retTimeEnd[size] = retTimeEndIn;
+        size += 1;
+        return size-1;
+    }
+
+    void setSignalToNoise(int i, double signalToNoiseIn){
+        signalToNoise[i] = signalToNoiseIn;
+        hasSignalToNoise[i] = true;
+    }
+
+    public int getPeakLeft(int i){
+        return peakLeft[i];
+    }
+    public int getPeakRight(int i){
+        return peakRight[i];
+    }
+    public double getHighestPoint(int i){
+        return highestPoint[i];
+    }
+    public double getWidth(int i){
+        return width[i];
+    }
+    public double getCroppedWidth(int i){
+        return croppedWidth[i];
+    }
+    public boolean isNotMostlyZero(int i){
+        return notMostlyZero[i];
+    }
+    public double getDifferenceSigBnd(int i){
+        return differenceSigBnd[i];
+    }
+    public double getNormedCoef(int i){
+        return normedCoef[i];
+    }
+    public boolean hasSignalToNoise(int i){
+        return hasSignalToNoise[i];
+    }
+    public double getSignalToNoise(int i){
+        if (!hasSignalToNoise[i]){
+            throw new IllegalStateException("No signal to noise ratio for candidate "+i
+                    +", these parameters were not given to findCandidates");
+        }
+        return signalToNoise[i];
+    }
+    public CandidateFilterChain getFilterChain(){
+        return filterChain;
+    }
+
+    // Every filter that does not need the signal to noise ratio
+    boolean passesAllButSignalToNoise(int i, DeconvolutionParameters parameters){
+        return filterChain.acceptWithoutSignalToNoise(this, i, parameters);
+    }
+
+    // The peaks DeconvoluteSignal finds with these parameters, in the same order. Counted in the
+    // filter chain.
+    public List<PeakInfo> filter(DeconvolutionParameters parameters){
+        List<PeakInfo> resolvedPeaks = new ArrayList<PeakInfo>();
+        for (int i=0; i<size; i++){
+            if (!filterChain.accept(this, i, parameters)){
+                continue;
+            }
+            double curSN = signalToNoise[i];
+            if (curSN>1E12){
+                curSN=1E12;
+            }
+
+            PeakInfo curPeakInfo = new PeakInfo();
+
+            curPeakInfo.retTime = peakRT[i];
+            curPeakInfo.intensity = peakHeight[i];
+            curPeakInfo.retTimeStart = retTimeStart[i];
+            curPeakInfo.retTimeEnd = retTimeEnd[i];
+            curPeakInfo.peakIndex = peakIndex[i];
+            curPeakInfo.leftApexIndex = peakLeft[i];
+            curPeakInfo.rightApexIndex = peakRight[i];
+            curPeakInfo.mzValue = mz;
+            curPeakInfo.signalToNoiseRatio = curSN;
+            curPeakInfo.coeffOverArea = normedCoef[i];
+
+            resolvedPeaks.add(curPeakInfo);
+        }
+        return resolvedPeaks;
+    }
+}
@@ -0,0 +1,65 @@
+/*
+ * Copyright (C) 2016 Du-Lab Team <dulab.binf@gmail.com>
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+package dulab.adap.workflow;
+
+import com.google.common.collect.Range;
+
+/**
+ * The thresholds of DeconvoluteSignal that only decide which candidate peaks
+ * are kept. None of them change the wavelet coefficients or the ridgelines, so
+ * many of them can be tried on the same candidates (see
+ * Deconvolution.DeconvoluteSignalSweep).
+ *
+ * @author owen myers
+ */
+public class DeconvolutionParameters {
+    private final double snrThreshold;
+    private final double minimumFeatHeight;
+    private final Range<Double> peakWidth;
+    private final double coefAreaRatioTolerance;
+
+    public DeconvolutionParameters(double snrThresholdIn,
+                                   double minimumFeatHeightIn,
+                                   Range<Double> peakWidthIn,
+                                   double coefAreaRatioToleranceIn){
+        snrThreshold = snrThresholdIn;
+        minimumFeatHeight = minimumFeatHeightIn;
+        peakWidth = peakWidthIn;
+        coefAreaRatioTolerance = coefAreaRatioToleranceIn;
+    }
+
+    public double getSnrThreshold(){
+        return snrThreshold;
+    }
+    public double getMinimumFeatHeight(){
+        return minimumFeatHeight;
+    }
+    // in units of retention time
+    public Range<Double> getPeakWidth(){
+        return peakWidth;
+    }
+    public double getCoefAreaRatioTolerance(){
+        return coefAreaRatioTolerance;
+    }
+
+    @Override
+    public String toString(){
+        return "snr "+snrThreshold+", height "+minimumFeatHeight+", width "+peakWidth
+                +", coef/area "+coefAreaRatioTolerance;
+    }
+}
@@ -0,0 +1,237 @@
+/*
+ * Copyright (C) 2016 Du-Lab Team <dulab.binf@gmail.com>
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+package dulab.adap.workflow;
+
+import dulab.adap.common.algorithms.ContinuousWaveletTransform;
+import dulab.adap.common.algorithms.ContinuousWaveletTransformPlan;
+import dulab.adap.datamodel.PeakInfo;
+import dulab.adap.datamodel.Trace;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Deconvolutes the samples of a run. Every sample gets an orchestration thread
+ * that loads its traces (I/O) and then hands one task per trace to a fixed size
+ * pool for the CPU work, so loading overlaps with the wavelet transforms without
+ * running more transforms than there are cores. The orchestration threads are
+ * virtual threads when the JVM has them (Java 21+) and ordinary threads
+ * otherwise.
+ * 
+ * A sample is cancelled as a whole through the Future returned by submit:
+ * cancel(true) interrupts its orchestration thread, which cancels the trace
+ * tasks of the sample that have not finished. The trace tasks of a sample also
+ * never outlive it when one of them fails.
+ *
+ * @author owen myers
+ */
+public class RunScheduler implements AutoCloseable {
+    
+    // Reads the traces of one sample. Runs on the sample's orchestration thread and may block.
+    public interface SampleLoader {
+        LoadedSample load() throws Exception;
+    }
+    
+    // The traces of a sample and the retention times they share
+    public static class LoadedSample {
+        private final double[] retentionTimes;
+        private final Collection<Trace> traces;
+        
+        public LoadedSample(final double[] retentionTimes, final Collection<Trace> traces){
+            this.retentionTimes = retentionTimes;
+            this.traces = traces;
+        }
+        public double[] getRetentionTimes(){
+            return retentionTimes;
+        }
+        public Collection<Trace> getTraces(){
+            return traces;
+        }
+    }
+    
+    private final ContinuousWaveletTransformPlan plan;
+    private final DeconvolutionParameters parameters;
+    private final Map<String,Object> informationSN;
+    // shared by all the samples, so its counters are for the whole run
+    private final CandidateFilterChain filterChain = new CandidateFilterChain();
+    
+    private final ExecutorService sampleExecutor;
+    private final boolean virtualThreads;
+    private final ExecutorService cpuPool;
+    // bounds the number of samples that are loaded at the same time, and so the memory
+    private final Semaphore loadedSamples;
+    // one workspace per CPU pool thread
+    private final ThreadLocal<ContinuousWaveletTransform> workspaces;
+    
+    // One CPU thread per core and at most two loaded samples per CPU thread
+    public RunScheduler(final ContinuousWaveletTransformPlan plan,
+            final DeconvolutionParameters parameters, final Map<String,Object> informationSN){
+        this(plan, parameters, informationSN, Runtime.getRuntime().availableProcessors(),
+                2*Runtime.getRuntime().availableProcessors());
+    }
+    
+    public RunScheduler(final ContinuousWaveletTransformPlan plan,
+            final DeconvolutionParameters parameters, final Map<String,Object> informationSN,
+            final int cpuThreads, final int maxLoadedSamples){
+        if (cpuThreads<1 || maxLoadedSamples<1){
+            throw new IllegalArgumentException("Need at least one CPU thread and one loaded sample");
+        }
+        this.plan = plan;
+        this.parameters = parameters;
+        this.informationSN = informationSN;
+        
+        ExecutorService virtualExecutor = newVirtualThreadPerTaskExecutor();
+        virtualThreads = virtualExecutor!=null;
+        // Without virtual threads every loaded sample holds a platform thread, and samples waiting
+        // for their turn to load would each hold one too. A fixed pool keeps the waiting samples in
+        // its queue instead.
+        sampleExecutor = virtualThreads ? virtualExecutor
+                : Executors.newFixedThreadPool(maxLoadedSamples, daemonThreads("adap-sample-"));
+        cpuPool = Executors.newFixedThreadPool(cpuThreads, daemonThreads("adap-cwt-"));
+        loadedSamples = new Semaphore(maxLoadedSamples);
+        workspaces = new ThreadLocal<ContinuousWaveletTransform>() {
+            @Override
+            protected ContinuousWaveletTransform initialValue(){
+                return new ContinuousWaveletTransform(RunScheduler.this.plan);
+            }
+        };
+    }
+    
+    // The peaks of the sample in the order of Deconvolution.DeconvoluteSignals
+    public Future<List<PeakInfo>> submit(final SampleLoader loader){
+        return sampleExecutor.submit(new Callable<List<PeakInfo>>() {
+            @Override
+            public List<PeakInfo> call() throws Exception{
+                loadedSamples.acquire();
+                try{
+                    return runSample(loader.load());
+                }
+                finally{
+                    loadedSamples.release();
+                }
+            }
+        });
+    }
+    
+    // where the candidates of all the samples so far were rejected
+    public CandidateFilterChain getFilterChain(){
+        return filterChain;
+    }
+    
+    public boolean usesVirtualThreads(){
+        return virtualThreads;
+    }
+    
+    // Stops taking samples, the submitted ones still finish
+    public void shutdown(){
+        sampleExecutor.shutdown();
+        cpuPool.shutdown();
+    }
+    
+    // Cancels everything
+    @Override
+    public void close(){
+        sampleExecutor.shutdownNow();
+        cpuPool.shutdownNow();
+    }
+    
+    private List<PeakInfo> runSample(final LoadedSample sample) throws Exception{
+        final double[] retentionTimes = sample.getRetentionTimes();
+        List<Trace> sortedTraces = Deconvolution.sortByMz(sample.getTraces(), retentionTimes.length);
+        
+        // Results are taken in the order the traces finish so the first failure is seen right away
+        // (and the rest cancelled below), and put back in m/z order at the end.
+        final List<List<PeakInfo>> peaksPerTrace = new ArrayList<List<PeakInfo>>(
+                Collections.<List<PeakInfo>>nCopies(sortedTraces.size(), null));
+        CompletionService<Void> finished = new ExecutorCompletionService<Void>(cpuPool);
+        List<Future<Void>> traceTasks = new ArrayList<Future<Void>>(sortedTraces.size());
+        try{
+            for (int i=0; i<sortedTraces.size(); i++){
+                final int traceIndex = i;
+                final Trace trace = sortedTraces.get(i);
+                traceTasks.add(finished.submit(new Callable<Void>() {
+                    @Override
+                    public Void call(){
+                        peaksPerTrace.set(traceIndex, Deconvolution.DeconvoluteSignal(workspaces.get(),
+                                retentionTimes, trace.getIntensity(), trace.getMz(), parameters,
+                                informationSN, filterChain));
+                        return null;
+                    }
+                }));
+            }
+            for (int i=0; i<traceTasks.size(); i++){
+                finished.take().get();
+            }
+            List<PeakInfo> allPeaks = new ArrayList<PeakInfo>();
+            for (List<PeakInfo> peaks : peaksPerTrace){
+                allPeaks.addAll(peaks);
+            }
+            return allPeaks;
+        }
+        catch (ExecutionException e){
+            Throwable cause = e.getCause();
+            if (cause instanceof Exception){
+                throw (Exception) cause;
+            }
+            throw e;
+        }
+        finally{
+            // nothing of this sample keeps running after an interrupt or a failure
+            for (Future<Void> traceTask : traceTasks){
+                traceTask.cancel(true);
+            }
+        }
+    }
+    
+    // Executors.newVirtualThreadPerTaskExecutor() on Java 21+, null before
+    private static ExecutorService newVirtualThreadPerTaskExecutor(){
+        try{
+            Method factory = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return (ExecutorService) factory.invoke(null);
+        }
+        catch (Exception e){
+            // not there, or a preview feature that is not enabled
+            return null;
+        }
+    }
+    
+    private static ThreadFactory daemonThreads(final String prefix){
+        final AtomicInteger count = new AtomicInteger();
+        return new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r){
+                Thread thread = new Thread(r, prefix+count.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        };
+    }
+}
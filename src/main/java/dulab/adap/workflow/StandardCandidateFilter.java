@@ -0,0 +1,100 @@
+/*
+ * Copyright (C) 2016 Du-Lab Team <dulab.binf@gmail.com>
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+package dulab.adap.workflow;
+
+/**
+ * The checks of DeconvoluteSignal. Declared in the order DeconvoluteSignal has
+ * always done them, which is the order they run in when the costs are equal.
+ * The comparisons are written the way they always were (e.g. !(a<b) and not
+ * a>=b) so NaN goes the same way.
+ *
+ * @author owen myers
+ */
+public enum StandardCandidateFilter implements CandidateFilter {
+    
+    // highest point between the bounds found from the ridgeline
+    MINIMUM_HEIGHT(1.0) {
+        @Override
+        public boolean accept(DeconvolutionCandidates candidates, int i, DeconvolutionParameters parameters){
+            return candidates.getHighestPoint(i)>=parameters.getMinimumFeatHeight();
+        }
+    },
+    PEAK_WIDTH(1.0) {
+        @Override
+        public boolean accept(DeconvolutionCandidates candidates, int i, DeconvolutionParameters parameters){
+            return parameters.getPeakWidth().contains(candidates.getWidth(i));
+        }
+    },
+    // more non zero than zero points between the bounds
+    NOT_MOSTLY_ZERO(1.0) {
+        @Override
+        public boolean accept(DeconvolutionCandidates candidates, int i, DeconvolutionParameters parameters){
+            return candidates.isNotMostlyZero(i);
+        }
+    },
+    // width without the zero intensity points at the ends
+    CROPPED_PEAK_WIDTH(1.0) {
+        @Override
+        public boolean accept(DeconvolutionCandidates candidates, int i, DeconvolutionParameters parameters){
+            return parameters.getPeakWidth().contains(candidates.getCroppedWidth(i));
+        }
+    },
+    // mean of the signal at least 0.2 minimum feature heights above the mean of the bounds
+    BOUNDARY_MEAN(1.0) {
+        @Override
+        public boolean accept(DeconvolutionCandidates candidates, int i, DeconvolutionParameters parameters){
+            return !(candidates.getDifferenceSigBnd(i)/parameters.getMinimumFeatHeight() < 0.2);
+        }
+    },
+    COEFFICIENT_OVER_AREA(1.0) {
+        @Override
+        public boolean accept(DeconvolutionCandidates candidates, int i, DeconvolutionParameters parameters){
+            return !(candidates.getNormedCoef(i)<parameters.getCoefAreaRatioTolerance());
+        }
+    },
+    // The ratio itself is the expensive part and is computed in findCandidates, this only compares it
+    SIGNAL_TO_NOISE(100.0) {
+        @Override
+        public boolean needsSignalToNoise(){
+            return true;
+        }
+        @Override
+        public boolean accept(DeconvolutionCandidates candidates, int i, DeconvolutionParameters parameters){
+            return !(candidates.getSignalToNoise(i)<parameters.getSnrThreshold());
+        }
+    };
+    
+    private final double cost;
+    
+    StandardCandidateFilter(double costIn){
+        cost = costIn;
+    }
+    
+    @Override
+    public String getName(){
+        return name();
+    }
+    @Override
+    public double getCost(){
+        return cost;
+    }
+    @Override
+    public boolean needsSignalToNoise(){
+        return false;
+    }
+}
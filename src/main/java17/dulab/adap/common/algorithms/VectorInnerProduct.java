@@ -0,0 +1,59 @@
+/*
+ * Copyright (C) 2016 Du-Lab Team <dulab.binf@gmail.com>
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+package dulab.adap.common.algorithms;
+
+import jdk.incubator.vector.DoubleVector;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * InnerProduct using the widest double vectors of the machine (4 lanes with
+ * AVX2, 8 with AVX-512). Only loaded through InnerProduct.getBest().
+ *
+ * @author owen myers
+ */
+class VectorInnerProduct extends InnerProduct {
+    private static final VectorSpecies<Double> SPECIES = DoubleVector.SPECIES_PREFERRED;
+
+    @Override
+    public double dot(double[] a, int aFrom, double[] b, int bFrom, int length){
+        DoubleVector sums = DoubleVector.zero(SPECIES);
+        int step = SPECIES.length();
+        int upper = SPECIES.loopBound(length);
+        int i = 0;
+        for (; i<upper; i+=step){
+            DoubleVector curA = DoubleVector.fromArray(SPECIES, a, aFrom+i);
+            DoubleVector curB = DoubleVector.fromArray(SPECIES, b, bFrom+i);
+            sums = curA.fma(curB, sums);
+        }
+        // lane by lane in a fixed order, reduceLanes(ADD) may add them up in any order and the
+        // coefficients have to be the same from one call to the next
+        double sum = 0.0;
+        for (int lane=0; lane<step; lane++){
+            sum += sums.lane(lane);
+        }
+        for (; i<length; i++){
+            sum += a[aFrom+i]*b[bFrom+i];
+        }
+        return sum;
+    }
+
+    @Override
+    public String getName(){
+        return "vector "+SPECIES.length()+"x double";
+    }
+}
@@ -0,0 +1,139 @@
+/*
+ * Copyright (C) 2016 Du-Lab Team <dulab.binf@gmail.com>
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+package dulab.adap.common.algorithms;
+
+import com.google.common.collect.Range;
+import dulab.adap.datamodel.PeakInfo;
+import dulab.adap.workflow.Deconvolution;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import org.junit.Test;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * The decimated multiresolution mode (setMinDecimatedScale) against the full
+ * resolution transform on synthetic EICs: Gaussian peaks 5 to 35 scans wide on
+ * uniform noise, scales 5 to 60.
+ *
+ * @author owen myers
+ */
+public class DecimatedTransformTest {
+    private static final int NUM_POINTS = 8000;
+    private static final long[] SEEDS = {1, 2, 3};
+    
+    private double[] x;
+    private double[] signal;
+    
+    private void makeSignal(long seed){
+        Random random = new Random(seed);
+        x = new double[NUM_POINTS];
+        signal = new double[NUM_POINTS];
+        for (int i=0; i<NUM_POINTS; i++){
+            x[i] = 0.01*i;
+        }
+        for (int p=0; p<16; p++){
+            double center = random.nextInt(NUM_POINTS);
+            double width = 5+random.nextDouble()*30;
+            double height = 1e3+random.nextDouble()*1e5;
+            for (int i=0; i<NUM_POINTS; i++){
+                signal[i] += height*java.lang.Math.exp(-(i-center)*(i-center)/(2*width*width));
+            }
+        }
+        for (int i=0; i<NUM_POINTS; i++){
+            signal[i] += random.nextDouble()*200;
+        }
+    }
+    
+    private ContinuousWaveletTransform makeTransform(double minDecimatedScale){
+        ContinuousWaveletTransform transform = new ContinuousWaveletTransform(ScaleGrid.linear(5, 60, 5));
+        transform.setConvolutionMode(ContinuousWaveletTransform.ConvolutionMode.DIRECT);
+        transform.setMinDecimatedScale(minDecimatedScale);
+        transform.setSignal(signal);
+        transform.setX(x);
+        return transform;
+    }
+    
+    // largest error of a row relative to the largest full resolution coefficient of the row
+    private double maxRelativeError(double minDecimatedScale){
+        ContinuousWaveletTransform full = makeTransform(0.0);
+        full.getCoefficientsForAllScales();
+        double[][] expected = full.returnAllCoefficients();
+        ContinuousWaveletTransform decimated = makeTransform(minDecimatedScale);
+        decimated.getCoefficientsForAllScales();
+        double[][] actual = decimated.returnAllCoefficients();
+        
+        double worst = 0.0;
+        for (int i=0; i<expected.length; i++){
+            double rowMax = 0.0;
+            double error = 0.0;
+            for (int j=0; j<NUM_POINTS; j++){
+                rowMax = java.lang.Math.max(rowMax, java.lang.Math.abs(expected[i][j]));
+                error = java.lang.Math.max(error, java.lang.Math.abs(expected[i][j]-actual[i][j]));
+            }
+            worst = java.lang.Math.max(worst, error/rowMax);
+        }
+        return worst;
+    }
+    
+    private List<Integer> peakIndecies(double minDecimatedScale){
+        Map<String, Object> informationSN = new HashMap<String, Object>();
+        informationSN.put("code", "Intensity Window Estimator");
+        List<PeakInfo> peaks = Deconvolution.DeconvoluteSignal(makeTransform(minDecimatedScale), x, signal,
+                100.0, 3.0, 500.0, Range.closed(0.0, 10.0), 0.0, informationSN);
+        List<Integer> indecies = new ArrayList<Integer>();
+        for (PeakInfo peak : peaks){
+            indecies.add(peak.peakIndex);
+        }
+        Collections.sort(indecies);
+        return indecies;
+    }
+    
+    @Test
+    public void offByDefault(){
+        makeSignal(SEEDS[0]);
+        assertEquals(0.0, maxRelativeError(0.0), 0.0);
+    }
+    
+    @Test
+    public void coefficientsCloseToFullResolution(){
+        for (long seed : SEEDS){
+            makeSignal(seed);
+            // about 4e-3 at 16 and 1e-2 at 8 on these signals
+            double error16 = maxRelativeError(16.0);
+            double error8 = maxRelativeError(8.0);
+            assertTrue("seed "+seed+" minDecimatedScale 16: "+error16, error16<=1e-2);
+            assertTrue("seed "+seed+" minDecimatedScale 8: "+error8, error8<=2.5e-2);
+        }
+    }
+    
+    @Test
+    public void samePeaksAsFullResolution(){
+        for (long seed : SEEDS){
+            makeSignal(seed);
+            List<Integer> expected = peakIndecies(0.0);
+            assertTrue(expected.size()>0);
+            assertEquals("seed "+seed, expected, peakIndecies(16.0));
+            assertEquals("seed "+seed, expected, peakIndecies(8.0));
+        }
+    }
+}